@@ -6,6 +6,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.Vector;
 
 import com.adobe.dp.epub.web.util.Initializer;
 import com.adobe.dp.otf.FileFontInputStream;
@@ -13,6 +14,7 @@ import com.adobe.dp.otf.FontInputStream;
 import com.adobe.dp.otf.FontLocator;
 import com.adobe.dp.otf.FontProperties;
 import com.adobe.dp.otf.FontPropertyConstants;
+import com.adobe.dp.otf.MappedFontInputStream;
 import com.adobe.dp.otf.OpenTypeFont;
 
 public class SharedFontSet {
@@ -66,7 +68,7 @@ public class SharedFontSet {
 				return base.locateFont(key);
 			}
 			File file = new File(fontFolder, src);
-			return new FileFontInputStream(file);
+			return MappedFontInputStream.open(file);
 		}
 
 		public boolean hasFont(FontProperties key) {
@@ -81,10 +83,19 @@ public class SharedFontSet {
 		fontFolder.mkdirs();
 		String[] list = fontFolder.list();
 		if (list != null) {
+			Vector names = new Vector();
 			for (int i = 0; i < list.length; i++)
-				if (list[i].endsWith("=")) {
-					loadFont(list[i]);
-				}
+				if (list[i].endsWith("="))
+					names.add(list[i]);
+			File[] files = new File[names.size()];
+			for (int i = 0; i < files.length; i++)
+				files[i] = new File(fontFolder, (String) names.elementAt(i));
+			Hashtable props = Initializer.getFontIndex().getFontProperties(files);
+			for (int i = 0; i < files.length; i++) {
+				FontProperties key = (FontProperties) props.get(files[i].getAbsolutePath());
+				if (key != null)
+					fontNameToKeyMap.put(names.elementAt(i), key);
+			}
 		}
 	}
 
@@ -31,6 +31,7 @@
 package com.adobe.dp.epub.web.servlet;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -72,6 +73,13 @@ public class DOCXConverterServlet extends HttpServlet {
 
 	static HashSet activeStreams = new HashSet();
 
+	/**
+	 * Write chapters out as they are converted, so that the whole book is
+	 * never held in memory; can be turned off with the "streaming" init
+	 * parameter
+	 */
+	boolean streaming = true;
+
 	static {
 		Initializer.init();
 		logger = Logger.getLogger(DOCXConverterServlet.class);
@@ -79,6 +87,12 @@ public class DOCXConverterServlet extends HttpServlet {
 		logger.trace("servlet loaded");
 	}
 
+	public void init() throws ServletException {
+		String s = getInitParameter("streaming");
+		if (s != null)
+			streaming = s.toLowerCase().startsWith("t");
+	}
+
 	void reportError(HttpServletResponse resp, String err) throws IOException {
 		logger.error(err);
 		resp.setContentType("text/plain; charset=utf8");
@@ -98,6 +112,8 @@ public class DOCXConverterServlet extends HttpServlet {
 			IOException {
 		String streamIP = null;
 		ZipContainerSource resources = null;
+		File epubtmp = null;
+		OutputStream epubout = null;
 		try {
 			logger.trace("start " + req.getRemoteAddr());
 			InputStream docxin = null;
@@ -227,6 +243,15 @@ public class DOCXConverterServlet extends HttpServlet {
 			conv.setFontLocator(fontLocator);
 			resources = new ZipContainerSource(docxtmp);
 			conv.setWordResources(resources);
+			OCFContainerWriter container = null;
+			if (streaming && !fontReport) {
+				// the file name in the response headers comes from the title,
+				// which is only known at the end
+				epubtmp = File.createTempFile("docx2epub", "epub", workPath);
+				epubout = new FileOutputStream(epubtmp);
+				container = new OCFContainerWriter(epubout);
+				conv.useStreaming(container, true);
+			}
 			conv.convert();
 			FontEmbeddingReport report = conv.embedFonts();
 			if (fontReport) {
@@ -249,8 +274,20 @@ public class DOCXConverterServlet extends HttpServlet {
 				resp.setContentType("application/epub+zip");
 				resp.setHeader("Content-Disposition", "attachment; filename=" + fname + ".epub");
 				OutputStream out = resp.getOutputStream();
-				OCFContainerWriter container = new OCFContainerWriter(out);
-				epub.serialize(container);
+				if (container == null) {
+					container = new OCFContainerWriter(out);
+					epub.serialize(container);
+				} else {
+					epub.serialize(container);
+					epubout = null;
+					InputStream epubin = new FileInputStream(epubtmp);
+					try {
+						while ((len = epubin.read(buffer)) > 0)
+							out.write(buffer, 0, len);
+					} finally {
+						epubin.close();
+					}
+				}
 			}
 			resources.close();
 			docxtmp.delete();
@@ -264,6 +301,11 @@ public class DOCXConverterServlet extends HttpServlet {
 			if( resources != null ) {
 				resources.close();
 			}
+			if (epubtmp != null) {
+				if (epubout != null)
+					epubout.close();
+				epubtmp.delete();
+			}
 			if (streamIP != null) {
 				synchronized (activeStreams) {
 					activeStreams.remove(streamIP);
@@ -7,7 +7,9 @@ import org.apache.log4j.PatternLayout;
 import org.apache.log4j.RollingFileAppender;
 
 import com.adobe.dp.otf.DefaultFontLocator;
+import com.adobe.dp.otf.FontIndex;
 import com.adobe.dp.otf.FontLocator;
+import com.adobe.dp.otf.SubsetCache;
 
 public class Initializer {
 
@@ -16,6 +18,7 @@ public class Initializer {
 	static File uploadDir;
 	static File workDir;
 	static File logDir;
+	static FontIndex fontIndex;
 	
 	static DefaultFontLocator defaultFontLocator;
 
@@ -43,7 +46,10 @@ public class Initializer {
 			appender.activateOptions();
 			BasicConfigurator.configure(appender);
 			String[] dirs = { fontDir.getAbsolutePath() };
-			defaultFontLocator = new DefaultFontLocator(dirs);
+			fontIndex = FontIndex.getIndex(new File(epubgenHome, "fontindex.txt"));
+			defaultFontLocator = new DefaultFontLocator(dirs, fontIndex);
+			File subsetDir = new File(epubgenHome, "subsetCache");
+			SubsetCache.getInstance().setDiskCache(subsetDir, 256 * 1024 * 1024);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -65,6 +71,10 @@ public class Initializer {
 		return uploadDir;
 	}
 
+	public static FontIndex getFontIndex() {
+		return fontIndex;
+	}
+
 	public static FontLocator getDefaultFontLocator() {
 		return defaultFontLocator;
 	}
@@ -33,62 +33,152 @@ package com.adobe.dp.css;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.Iterator;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.NoSuchElementException;
 
 public abstract class BaseRule {
 
-	TreeMap properties;
+	/**
+	 * Property ids (see {@link CSSPropertyRegistry}) and values; the first
+	 * propertyCount entries are used and they are kept sorted by property
+	 * name.
+	 */
+	int[] propertyIds;
 
-	BaseRule() {
-		properties = new TreeMap();
-	}
+	CSSValue[] propertyValues;
+
+	int propertyCount;
 
-	BaseRule(TreeMap props) {
-		this.properties = props;
+	BaseRule() {
 	}
 
 	protected BaseRule(BaseRule other) {
-		properties = new TreeMap();
-		Iterator it = other.properties.entrySet().iterator();
-		while( it.hasNext() ) {
-			Map.Entry entry = (Map.Entry)it.next();
-			// not cloning CSS values
-			properties.put(entry.getKey(), entry.getValue());
+		// not cloning CSS values
+		propertyCount = other.propertyCount;
+		if (propertyCount > 0) {
+			propertyIds = new int[propertyCount];
+			propertyValues = new CSSValue[propertyCount];
+			System.arraycopy(other.propertyIds, 0, propertyIds, 0, propertyCount);
+			System.arraycopy(other.propertyValues, 0, propertyValues, 0, propertyCount);
 		}
-		
 	}
-	
+
 	public boolean isEmpty() {
-		return properties.isEmpty();
+		return propertyCount == 0;
+	}
+
+	private int indexOf(int id) {
+		for (int i = 0; i < propertyCount; i++)
+			if (propertyIds[i] == id)
+				return i;
+		return -1;
 	}
 
 	public CSSValue get(String property) {
-		return (CSSValue)properties.get(property);
+		if (propertyCount == 0)
+			return null;
+		return get(CSSPropertyRegistry.lookupId(property));
+	}
+
+	CSSValue get(int id) {
+		int index = indexOf(id);
+		return (index < 0 ? null : propertyValues[index]);
 	}
 
 	public void set(String property, CSSValue value) {
-		if (value == null)
-			properties.remove(property);
-		else
-			properties.put(property, value);
+		if (value == null) {
+			if (propertyCount > 0)
+				set(CSSPropertyRegistry.lookupId(property), null);
+		} else {
+			set(CSSPropertyRegistry.getId(property), value);
+		}
 	}
 
+	void set(int id, CSSValue value) {
+		int index = indexOf(id);
+		if (index >= 0) {
+			if (value != null) {
+				propertyValues[index] = value;
+			} else {
+				propertyCount--;
+				System.arraycopy(propertyIds, index + 1, propertyIds, index, propertyCount - index);
+				System.arraycopy(propertyValues, index + 1, propertyValues, index, propertyCount - index);
+				propertyValues[propertyCount] = null;
+			}
+		} else if (value != null) {
+			if (propertyIds == null) {
+				propertyIds = new int[4];
+				propertyValues = new CSSValue[4];
+			} else if (propertyCount == propertyIds.length) {
+				int[] ids = new int[2 * propertyCount];
+				CSSValue[] values = new CSSValue[2 * propertyCount];
+				System.arraycopy(propertyIds, 0, ids, 0, propertyCount);
+				System.arraycopy(propertyValues, 0, values, 0, propertyCount);
+				propertyIds = ids;
+				propertyValues = values;
+			}
+			String name = CSSPropertyRegistry.getName(id);
+			index = propertyCount;
+			while (index > 0 && CSSPropertyRegistry.getName(propertyIds[index - 1]).compareTo(name) > 0)
+				index--;
+			System.arraycopy(propertyIds, index, propertyIds, index + 1, propertyCount - index);
+			System.arraycopy(propertyValues, index, propertyValues, index + 1, propertyCount - index);
+			propertyIds[index] = id;
+			propertyValues[index] = value;
+			propertyCount++;
+		}
+	}
+
+	/**
+	 * Iterates over property names in alphabetical order. The rule must not
+	 * be modified while iterating.
+	 */
 	public Iterator properties() {
-		return properties.keySet().iterator();
+		return new Iterator() {
+			int index;
+
+			public boolean hasNext() {
+				return index < propertyCount;
+			}
+
+			public Object next() {
+				if (index >= propertyCount)
+					throw new NoSuchElementException();
+				return CSSPropertyRegistry.getName(propertyIds[index++]);
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	boolean propertiesEqual(BaseRule other) {
+		if (propertyCount != other.propertyCount)
+			return false;
+		// entries are sorted, so equal rules have them in the same order
+		for (int i = 0; i < propertyCount; i++) {
+			if (propertyIds[i] != other.propertyIds[i] || !propertyValues[i].equals(other.propertyValues[i]))
+				return false;
+		}
+		return true;
+	}
+
+	int propertiesHashCode() {
+		int code = 0;
+		for (int i = 0; i < propertyCount; i++)
+			code = 31 * code + (propertyIds[i] ^ propertyValues[i].hashCode());
+		return code;
 	}
 
 	public abstract void serialize(PrintWriter out);
 
 	public void serializeProperties(PrintWriter out, boolean newlines) {
-		Iterator entries = properties.entrySet().iterator();
-		while (entries.hasNext()) {
-			Map.Entry entry = (Map.Entry) entries.next();
+		for (int i = 0; i < propertyCount; i++) {
 			if (newlines)
 				out.print('\t');
-			out.print(entry.getKey());
+			out.print(CSSPropertyRegistry.getName(propertyIds[i]));
 			out.print(": ");
-			((CSSValue)entry.getValue()).serialize(out);
+			propertyValues[i].serialize(out);
 			out.print(";");
 			if (newlines)
 				out.println();
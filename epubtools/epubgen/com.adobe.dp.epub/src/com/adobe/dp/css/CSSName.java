@@ -4,7 +4,7 @@ import java.io.PrintWriter;
 
 public class CSSName extends CSSValue {
 
-	private String name;
+	private final String name;
 
 	public CSSName(String name) {
 		this.name = name;
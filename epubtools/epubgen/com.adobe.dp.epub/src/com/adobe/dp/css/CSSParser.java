@@ -1,12 +1,10 @@
 package com.adobe.dp.css;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
-import java.io.StringReader;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Set;
@@ -17,7 +15,17 @@ public class CSSParser {
 
 	String encoding;
 
-	Reader reader;
+	/**
+	 * Text being parsed; it is read in full before parsing starts, so that
+	 * the tokenizer can work on chars in the array directly
+	 */
+	char[] buffer;
+
+	int pos;
+
+	int end;
+
+	int savedPos;
 
 	int lineCount;
 
@@ -43,6 +51,16 @@ public class CSSParser {
 
 	private static byte[] at_charset = { 40, 63, 68, 61, 72, 73, 65, 74, 20, 22 };
 
+	/**
+	 * Recently seen identifiers (and their values), indexed by hash code and
+	 * shared by all parsers; a race between parsers can only lose an entry.
+	 */
+	private static final String[] nameCache = new String[1024];
+
+	private static final CSSName[] nameValueCache = new CSSName[1024];
+
+	private static final int MAX_CACHED_NAME = 32;
+
 	private void reportError(String err) {
 		reportError(lineCount, err);
 	}
@@ -64,17 +82,37 @@ public class CSSParser {
 		return true;
 	}
 
-	private void setReader(Reader in) throws IOException {
+	private void setBuffer(char[] buffer, int offset, int length) {
+		this.buffer = buffer;
+		this.pos = offset;
+		this.end = offset + length;
 		this.lineCount = 1;
+		this.afterCR = false;
+	}
+
+	private void setReader(Reader in) throws IOException {
 		this.encoding = null;
-		if (in.markSupported())
-			this.reader = in;
-		else
-			this.reader = new BufferedReader(in);
+		readFully(in);
+	}
+
+	private void readFully(Reader in) throws IOException {
+		char[] buf = new char[4096];
+		int len = 0;
+		while (true) {
+			if (len == buf.length) {
+				char[] newBuf = new char[2 * len];
+				System.arraycopy(buf, 0, newBuf, 0, len);
+				buf = newBuf;
+			}
+			int n = in.read(buf, len, buf.length - len);
+			if (n < 0)
+				break;
+			len += n;
+		}
+		setBuffer(buf, 0, len);
 	}
 
 	private void setReader(InputStream in) throws IOException {
-		this.lineCount = 1;
 		if (encoding == null) {
 			encoding = "UTF-8";
 			if (!in.markSupported())
@@ -111,17 +149,19 @@ public class CSSParser {
 				}
 			}
 		}
-		this.reader = new BufferedReader(new InputStreamReader(in, encoding));
+		readFully(new InputStreamReader(in, encoding));
 	}
 
-	private void mark(int readAheadLimit) throws IOException {
-		reader.mark(readAheadLimit);
+	private void mark(int readAheadLimit) {
+		savedPos = pos;
 		savedLineCount = lineCount;
 		savedAfterCR = afterCR;
 	}
 
-	private int read() throws IOException {
-		int ch = reader.read();
+	private int read() {
+		if (pos >= end)
+			return -1;
+		int ch = buffer[pos++];
 		if (ch == '\r') {
 			lineCount++;
 			afterCR = true;
@@ -135,8 +175,8 @@ public class CSSParser {
 		return ch;
 	}
 
-	private void reset() throws IOException {
-		reader.reset();
+	private void reset() {
+		pos = savedPos;
 		lineCount = savedLineCount;
 		afterCR = savedAfterCR;
 	}
@@ -155,29 +195,23 @@ public class CSSParser {
 	}
 
 	private int skipWhitespace() throws IOException {
-		while (true) {
-			mark(1);
-			int ch = read();
-			if (ch < 0)
-				return ch;
+		while (pos < end) {
+			char ch = buffer[pos];
 			if (ch == '/') {
-				reset();
-				mark(2);
-				read();
-				ch = read();
-				if (ch == '*') {
+				if (pos + 1 < end && buffer[pos + 1] == '*') {
 					// comment
+					read();
+					read();
 					skipToEndOfComment();
 					continue;
 				}
-				reset();
 				return '/';
 			}
-			if (ch != ' ' && ch != '\n' && ch != '\r' && ch != '\t' && ch != '\f') {
-				reset();
+			if (ch != ' ' && ch != '\n' && ch != '\r' && ch != '\t' && ch != '\f')
 				return ch;
-			}
+			read();
 		}
+		return -1;
 	}
 
 	private void skipToEnd(boolean blockStarted) throws IOException {
@@ -279,8 +313,59 @@ public class CSSParser {
 		return ch;
 	}
 
+	private static boolean isNameChar(int ch) {
+		return ('a' <= ch && ch <= 'z') || ('A' <= ch && ch <= 'Z') || ('0' <= ch && ch <= '9') || ch == '-'
+				|| ch == '_' || ch >= 0x80;
+	}
+
+	private static String makeName(char[] buf, int offset, int len) {
+		if (len > MAX_CACHED_NAME)
+			return new String(buf, offset, len);
+		int hash = 0;
+		for (int i = 0; i < len; i++)
+			hash = 31 * hash + buf[offset + i];
+		int index = hash & (nameCache.length - 1);
+		String name = nameCache[index];
+		if (name != null && name.length() == len) {
+			int i = 0;
+			while (i < len && name.charAt(i) == buf[offset + i])
+				i++;
+			if (i == len)
+				return name;
+		}
+		name = new String(buf, offset, len);
+		nameCache[index] = name;
+		return name;
+	}
+
+	private static CSSName makeNameValue(String name) {
+		if (name.length() > MAX_CACHED_NAME)
+			return new CSSName(name);
+		int index = name.hashCode() & (nameValueCache.length - 1);
+		CSSName value = nameValueCache[index];
+		if (value == null || !value.toString().equals(name)) {
+			value = new CSSName(name);
+			nameValueCache[index] = value;
+		}
+		return value;
+	}
+
 	private String readName() throws IOException {
+		int start = pos;
+		while (pos < end && isNameChar(buffer[pos]))
+			pos++;
+		if (pos > start)
+			afterCR = false;
+		if (pos >= end || buffer[pos] != '\\') {
+			if (pos > start)
+				return makeName(buffer, start, pos - start);
+			if (pos < end)
+				reportError("NAME_EXPECTED");
+			return null;
+		}
+		// escape, build the name char by char
 		StringBuffer sb = new StringBuffer();
+		sb.append(buffer, start, pos - start);
 		while (true) {
 			mark(1);
 			int ch = read();
@@ -295,8 +380,7 @@ public class CSSParser {
 					continue;
 				if (ch < 0)
 					return null;
-			} else if (('a' <= ch && ch <= 'z') || ('A' <= ch && ch <= 'Z') || ('0' <= ch && ch <= '9') || ch == '-'
-					|| ch == '_' || ch >= 0x80) {
+			} else if (isNameChar(ch)) {
 				// good
 			} else {
 				reset();
@@ -314,7 +398,20 @@ public class CSSParser {
 		int fin = read();
 		if (fin != '\'' && fin != '"')
 			throw new RuntimeException("Not quoted!");
+		int start = pos;
+		while (pos < end) {
+			char ch = buffer[pos];
+			if (ch == fin) {
+				String str = new String(buffer, start, pos - start);
+				read();
+				return str;
+			}
+			if (ch == '\\' || ch == '\n' || ch == '\r')
+				break;
+			read();
+		}
 		StringBuffer sb = new StringBuffer();
+		sb.append(buffer, start, pos - start);
 		while (true) {
 			int ch = read();
 			if (ch < 0 || ch == fin)
@@ -379,8 +476,7 @@ public class CSSParser {
 			reset();
 			if (('0' <= ch && ch <= '9') || ch == '.' || (ch == '-' && (('0' <= c1 && c1 <= '9') || c1 == '.'))) {
 				// number or CSS length
-				StringBuffer sb = new StringBuffer();
-				sb.append((char)ch);
+				int start = pos;
 				read();
 				boolean fp = ch == '.';
 				while (true) {
@@ -395,14 +491,14 @@ public class CSSParser {
 					} else if ('0' > ch || ch > '9'){
 						break;
 					}
-					sb.append((char) ch);
 				}
+				String text = new String(buffer, start, savedPos - start);
 				Number result;
 				try {
 					if (fp)
-						result = new Double(sb.toString());
+						result = new Double(text);
 					else
-						result = new Integer(sb.toString());
+						result = new Integer(text);
 				} catch (Exception e) {
 					reportError("NUMBER_SYNTAX");
 					return null;
@@ -423,7 +519,7 @@ public class CSSParser {
 				ch = read();
 				if (ch != '(') {
 					reset();
-					return new CSSName(ident);
+					return makeNameValue(ident);
 				}
 				ident = ident.toLowerCase();
 				if (ident.equals("url")) {
@@ -566,9 +662,12 @@ public class CSSParser {
 	private void readProperties(BaseRule rule) throws IOException {
 		while (true) {
 			int ch = skipWhitespace();
-			if (('a' < ch && ch < 'z') || ('A' <= ch && ch <= 'Z') || ch == '-' || ch == '_' || ch == '\\'
+			if (('a' <= ch && ch <= 'z') || ('A' <= ch && ch <= 'Z') || ch == '-' || ch == '_' || ch == '\\'
 					|| ch >= 0x80) {
-				String prop = readName().toLowerCase();
+				String prop = readName();
+				if (prop == null)
+					break;
+				prop = prop.toLowerCase();
 				ch = skipWhitespace();
 				if (ch != ':') {
 					reportError("DECL_SYNTAX");
@@ -592,7 +691,7 @@ public class CSSParser {
 					value = new CSSImportant(value);
 					ch = skipWhitespace();
 				}
-				if (ch == ';' || ch == ';' || ch < 0) {
+				if (ch == ';' || ch == '}' || ch < 0) {
 					if (ch < 0)
 						reportError("UNEXPECTED_EOF");
 					if (validatePropertyValue(prop, value))
@@ -1006,8 +1105,7 @@ public class CSSParser {
 	public InlineRule readInlineStyle(String style) {
 		InlineRule result = new InlineRule();
 		try {
-			this.lineCount = 1;
-			this.reader = new StringReader(style);
+			setBuffer(style.toCharArray(), 0, style.length());
 			readProperties(result);
 		} catch (IOException e) {
 			// should not really happen
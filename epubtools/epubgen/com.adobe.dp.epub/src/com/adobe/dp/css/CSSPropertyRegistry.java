@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2009, Adobe Systems Incorporated
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * ·        Redistributions of source code must retain the above copyright 
+ *          notice, this list of conditions and the following disclaimer. 
+ *
+ * ·        Redistributions in binary form must reproduce the above copyright 
+ *		   notice, this list of conditions and the following disclaimer in the
+ *		   documentation and/or other materials provided with the distribution. 
+ *
+ * ·        Neither the name of Adobe Systems Incorporated nor the names of its 
+ *		   contributors may be used to endorse or promote products derived from
+ *		   this software without specific prior written permission. 
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR 
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+
+package com.adobe.dp.css;
+
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * Process-wide registry that maps CSS property names to small integer ids.
+ * Ids are never reused, so a name and its id can be cached freely.
+ */
+public final class CSSPropertyRegistry {
+
+	private static Hashtable idByName = new Hashtable();
+
+	private static Vector names = new Vector();
+
+	private static final String[] knownProperties = { "azimuth", "background", "background-attachment",
+			"background-color", "background-image", "background-position", "background-repeat", "border",
+			"border-bottom", "border-bottom-color", "border-bottom-style", "border-bottom-width", "border-collapse",
+			"border-color", "border-left", "border-left-color", "border-left-style", "border-left-width",
+			"border-right", "border-right-color", "border-right-style", "border-right-width", "border-spacing",
+			"border-style", "border-top", "border-top-color", "border-top-style", "border-top-width",
+			"border-width", "bottom", "caption-side", "clear", "clip", "color", "content", "counter-increment",
+			"counter-reset", "cue", "cue-after", "cue-before", "cursor", "direction", "display", "elevation",
+			"empty-cells", "float", "font", "font-family", "font-size", "font-size-adjust", "font-stretch",
+			"font-style", "font-variant", "font-weight", "height", "left", "letter-spacing", "line-height",
+			"list-style", "list-style-image", "list-style-position", "list-style-type", "margin", "margin-bottom",
+			"margin-left", "margin-right", "margin-top", "max-height", "max-width", "min-height", "min-width",
+			"oeb-column-number", "orphans", "outline", "outline-color", "outline-style", "outline-width",
+			"overflow", "padding", "padding-bottom", "padding-left", "padding-right", "padding-top",
+			"page-break-after", "page-break-before", "page-break-inside", "pause", "pause-after", "pause-before",
+			"pitch", "pitch-range", "play-during", "position", "quotes", "richness", "right", "size", "speak",
+			"speak-header", "speak-numeral", "speak-punctuation", "speech-rate", "src", "stress", "table-layout",
+			"text-align", "text-decoration", "text-indent", "text-transform", "top", "unicode-bidi",
+			"unicode-range", "vertical-align", "visibility", "voice-family", "volume", "white-space", "widows",
+			"width", "word-spacing", "z-index" };
+
+	static {
+		for (int i = 0; i < knownProperties.length; i++)
+			getId(knownProperties[i]);
+	}
+
+	private CSSPropertyRegistry() {
+	}
+
+	/**
+	 * Get property's id, registering property name if needed.
+	 */
+	public static int getId(String name) {
+		Integer id = (Integer) idByName.get(name);
+		if (id != null)
+			return id.intValue();
+		synchronized (names) {
+			id = (Integer) idByName.get(name);
+			if (id == null) {
+				name = name.intern();
+				id = new Integer(names.size());
+				names.add(name);
+				idByName.put(name, id);
+			}
+			return id.intValue();
+		}
+	}
+
+	/**
+	 * Get property's id without registering it.
+	 * 
+	 * @return property's id or -1 if the name was never registered (and thus
+	 *         no rule can have this property)
+	 */
+	public static int lookupId(String name) {
+		Integer id = (Integer) idByName.get(name);
+		return (id == null ? -1 : id.intValue());
+	}
+
+	public static String getName(int id) {
+		return (String) names.elementAt(id);
+	}
+
+}
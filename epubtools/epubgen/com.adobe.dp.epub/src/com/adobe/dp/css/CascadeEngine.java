@@ -30,13 +30,51 @@ public class CascadeEngine {
 
 	CascadeResult result;
 
-	Vector matcherLists = new Vector();
+	/**
+	 * Rules indexed by the id, class or element name required by the
+	 * rightmost compound selector; an element only has to be matched against
+	 * rules in its own buckets and rules in anyRules.
+	 */
+	Hashtable idMap = new Hashtable();
 
 	Hashtable classMap = new Hashtable();
 
 	Hashtable tagMap = new Hashtable();
 
-	int depth;
+	Vector anyRules = new Vector();
+
+	StackEntry current;
+
+	StackEntry lastRoot;
+
+	/**
+	 * Longest chain of sibling selectors; only that many preceding siblings
+	 * of an element are kept
+	 */
+	int siblingDepth;
+
+	/**
+	 * Set if some rule depends on element's position among its siblings;
+	 * siblings cannot share styles then
+	 */
+	boolean positional;
+
+	/**
+	 * Attributes (as {ns, name} pairs) tested by attribute selectors; their
+	 * values are part of the style sharing key
+	 */
+	Vector testedAttributes = new Vector();
+
+	/**
+	 * Style of the current element if it can be shared with its siblings
+	 */
+	SharedStyle shared;
+
+	/**
+	 * Cascade results that were handed out, so that equal results are
+	 * represented by the same object
+	 */
+	Hashtable internedResults = new Hashtable();
 
 	int order;
 
@@ -57,11 +95,15 @@ public class CascadeEngine {
 		}
 
 		int compareSpecificity(CascadeValue other) {
-			if (specificity != other.specificity)
-				return specificity - other.specificity;
-			if (importance != other.importance)
-				return importance - other.importance;
-			return order - other.order;
+			return compareSpecificity(other.specificity, other.importance, other.order);
+		}
+
+		int compareSpecificity(int specificity, int importance, int order) {
+			if (this.specificity != specificity)
+				return this.specificity - specificity;
+			if (this.importance != importance)
+				return this.importance - importance;
+			return this.order - order;
 		}
 
 		public void serialize(PrintWriter out) {
@@ -71,45 +113,191 @@ public class CascadeEngine {
 
 	}
 
-	static class MatcherList {
-		Vector matchers = new Vector();
+	/**
+	 * Element that is currently pushed (or preceding sibling of one).
+	 */
+	static class StackEntry {
+		String ns;
 
-		Set mediaList;
+		String name;
 
-		CSSStylesheet stylesheet;
+		SMap attrs;
 
-		MatcherList(CSSStylesheet stylesheet, Set mediaList) {
-			this.stylesheet = stylesheet;
-			this.mediaList = mediaList;
+		StackEntry parent;
+
+		StackEntry prevSibling;
+
+		StackEntry lastChild;
+
+		boolean firstChild;
+
+		/**
+		 * Styles of this element's children by style sharing key
+		 */
+		Hashtable childStyles;
+
+		StackEntry(String ns, String name, SMap attrs, StackEntry parent, StackEntry prevSibling) {
+			this.ns = ns;
+			this.name = name;
+			this.attrs = attrs;
+			this.parent = parent;
+			this.prevSibling = prevSibling;
+			this.firstChild = prevSibling == null;
 		}
+	}
 
-		void addSelectorRule(SelectorRule rule, int depth, int order, boolean addSimpleSelectors) {
-			for (int i = 0; i < rule.selectors.length; i++) {
-				Selector s = rule.selectors[i];
-				if (addSimpleSelectors || !(isClassSelector(s) || isTagSelector(s))) {
-					ElementMatcher matcher = s.getElementMatcher();
-					while (depth > 0) {
-						matcher.pushElement(null, "*", null);
-						depth--;
-					}
-					matchers.add(new MatcherRule(matcher, rule, order));
-				}
-			}
+	/**
+	 * Selector compiled for matching from right to left, against an element
+	 * and then its ancestors or preceding siblings on the stack.
+	 */
+	static abstract class StackMatcher {
+		abstract MatchResult match(StackEntry e);
+
+		static boolean isPlain(MatchResult r) {
+			return r != null && r.getPseudoElement() == null;
 		}
 	}
 
-	static class MatcherRule {
+	/**
+	 * Simple selectors that do not depend on element's context; their
+	 * ElementMatchers keep no state.
+	 */
+	static class SimpleStackMatcher extends StackMatcher {
 		ElementMatcher matcher;
 
+		SimpleStackMatcher(ElementMatcher matcher) {
+			this.matcher = matcher;
+		}
+
+		MatchResult match(StackEntry e) {
+			return matcher.pushElement(e.ns, e.name, e.attrs);
+		}
+	}
+
+	static class AndStackMatcher extends StackMatcher {
+		StackMatcher first;
+
+		StackMatcher second;
+
+		AndStackMatcher(StackMatcher first, StackMatcher second) {
+			this.first = first;
+			this.second = second;
+		}
+
+		MatchResult match(StackEntry e) {
+			MatchResult f = first.match(e);
+			if (f == null)
+				return null;
+			MatchResult s = second.match(e);
+			if (s == null)
+				return null;
+			if (f.getPseudoElement() == null)
+				return s;
+			if (s.getPseudoElement() == null)
+				return f;
+			return null; // something illegal like :first-letter:before
+		}
+	}
+
+	static class DescendantStackMatcher extends StackMatcher {
+		StackMatcher ancestor;
+
+		StackMatcher descendant;
+
+		DescendantStackMatcher(StackMatcher ancestor, StackMatcher descendant) {
+			this.ancestor = ancestor;
+			this.descendant = descendant;
+		}
+
+		MatchResult match(StackEntry e) {
+			MatchResult r = descendant.match(e);
+			if (r == null)
+				return null;
+			for (StackEntry p = e.parent; p != null; p = p.parent) {
+				if (isPlain(ancestor.match(p)))
+					return r;
+			}
+			return null;
+		}
+	}
+
+	static class ChildStackMatcher extends StackMatcher {
+		StackMatcher parent;
+
+		StackMatcher child;
+
+		ChildStackMatcher(StackMatcher parent, StackMatcher child) {
+			this.parent = parent;
+			this.child = child;
+		}
+
+		MatchResult match(StackEntry e) {
+			if (e.parent == null)
+				return null;
+			MatchResult r = child.match(e);
+			if (r == null || !isPlain(parent.match(e.parent)))
+				return null;
+			return r;
+		}
+	}
+
+	static class SiblingStackMatcher extends StackMatcher {
+		StackMatcher prev;
+
+		StackMatcher curr;
+
+		SiblingStackMatcher(StackMatcher prev, StackMatcher curr) {
+			this.prev = prev;
+			this.curr = curr;
+		}
+
+		MatchResult match(StackEntry e) {
+			if (e.prevSibling == null)
+				return null;
+			MatchResult r = curr.match(e);
+			if (r == null || !isPlain(prev.match(e.prevSibling)))
+				return null;
+			return r;
+		}
+	}
+
+	static class FirstChildStackMatcher extends StackMatcher {
+		MatchResult match(StackEntry e) {
+			return e.parent != null && e.firstChild ? MatchResult.ALWAYS : null;
+		}
+	}
+
+	/**
+	 * Cascade (and, once requested, its result) shared by siblings that no
+	 * rule can tell apart.
+	 */
+	static class SharedStyle {
+		CascadeResult result;
+
+		CascadeResult output;
+
+		SharedStyle(CascadeResult result) {
+			this.result = result;
+		}
+	}
+
+	static class IndexedRule {
+		StackMatcher matcher;
+
 		SelectorRule rule;
 
+		int specificity;
+
 		int order;
 
-		public MatcherRule(ElementMatcher matcher, SelectorRule rule, int order) {
-			super();
+		Set mediaList;
+
+		IndexedRule(StackMatcher matcher, SelectorRule rule, int specificity, int order, Set mediaList) {
 			this.matcher = matcher;
 			this.rule = rule;
+			this.specificity = specificity;
 			this.order = order;
+			this.mediaList = mediaList;
 		}
 	}
 
@@ -117,71 +305,193 @@ public class CascadeEngine {
 
 	}
 
-	private static boolean isClassSelector(Selector s) {
-		return s instanceof ClassSelector;
+	/**
+	 * Compile selector for right-to-left matching.
+	 * 
+	 * @return compiled selector, null if selector can never match (e.g.
+	 *         unsupported pseudo-class)
+	 */
+	static StackMatcher compile(Selector s) {
+		if (s instanceof AndSelector) {
+			AndSelector as = (AndSelector) s;
+			StackMatcher first = compile(as.first);
+			StackMatcher second = compile(as.second);
+			if (first == null || second == null)
+				return null;
+			return new AndStackMatcher(first, second);
+		}
+		if (s instanceof DescendantSelector) {
+			DescendantSelector ds = (DescendantSelector) s;
+			StackMatcher ancestor = compile(ds.ancestor);
+			StackMatcher descendant = compile(ds.descendant);
+			if (ancestor == null || descendant == null)
+				return null;
+			return new DescendantStackMatcher(ancestor, descendant);
+		}
+		if (s instanceof ChildSelector) {
+			ChildSelector cs = (ChildSelector) s;
+			StackMatcher parent = compile(cs.parent);
+			StackMatcher child = compile(cs.child);
+			if (parent == null || child == null)
+				return null;
+			return new ChildStackMatcher(parent, child);
+		}
+		if (s instanceof SiblingSelector) {
+			SiblingSelector ss = (SiblingSelector) s;
+			StackMatcher prev = compile(ss.prev);
+			StackMatcher curr = compile(ss.curr);
+			if (prev == null || curr == null)
+				return null;
+			return new SiblingStackMatcher(prev, curr);
+		}
+		if (s instanceof PseudoClassSelector) {
+			if (((PseudoClassSelector) s).name.equals("first-child"))
+				return new FirstChildStackMatcher();
+			return null; // TODO others
+		}
+		ElementMatcher matcher = s.getElementMatcher();
+		if (matcher == null)
+			return null;
+		return new SimpleStackMatcher(matcher);
 	}
 
-	private static boolean isTagSelector(Selector s) {
-		return s instanceof NamedElementSelector;
+	/**
+	 * Find the bucket for the selector: id, class or element name that the
+	 * rightmost compound selector requires.
+	 */
+	private Vector getBucket(Selector s) {
+		while (true) {
+			if (s instanceof DescendantSelector)
+				s = ((DescendantSelector) s).descendant;
+			else if (s instanceof ChildSelector)
+				s = ((ChildSelector) s).child;
+			else if (s instanceof SiblingSelector)
+				s = ((SiblingSelector) s).curr;
+			else
+				break;
+		}
+		Vector simple = new Vector();
+		collectCompound(s, simple);
+		Hashtable map = null;
+		String key = null;
+		for (int i = 0; i < simple.size(); i++) {
+			Object t = simple.elementAt(i);
+			if (t instanceof IdSelector) {
+				map = idMap;
+				key = ((IdSelector) t).id;
+				break;
+			}
+			if (t instanceof ClassSelector && map != classMap) {
+				map = classMap;
+				key = ((ClassSelector) t).className;
+			} else if (t instanceof NamedElementSelector && map == null) {
+				map = tagMap;
+				key = ((NamedElementSelector) t).getElementName();
+			}
+		}
+		if (map == null)
+			return anyRules;
+		Vector list = (Vector) map.get(key);
+		if (list == null) {
+			list = new Vector();
+			map.put(key, list);
+		}
+		return list;
 	}
 
-	private void collectSimpleSelectors(SelectorRule rule, int order) {
-		for (int i = 0; i < rule.selectors.length; i++) {
-			Selector s = rule.selectors[i];
-			if (isClassSelector(s)) {
-				ClassSelector cs = (ClassSelector) s;
-				Vector list = (Vector) classMap.get(cs.className);
-				if (list == null) {
-					list = new Vector();
-					classMap.put(cs.className, list);
-				}
-				list.add(new MatcherRule(cs.getElementMatcher(), rule, order));
-			} else if (isTagSelector(s)) {
-				NamedElementSelector ns = (NamedElementSelector) s;
-				Vector list = (Vector) tagMap.get(ns.getElementName());
-				if (list == null) {
-					list = new Vector();
-					tagMap.put(ns.getElementName(), list);
-				}
-				list.add(new MatcherRule(ns.getElementMatcher(), rule, order));
+	private static int getSiblingDepth(Selector s) {
+		if (s instanceof SiblingSelector)
+			return 1 + getSiblingDepth(((SiblingSelector) s).prev);
+		if (s instanceof DescendantSelector)
+			return getSiblingDepth(((DescendantSelector) s).ancestor);
+		if (s instanceof ChildSelector)
+			return getSiblingDepth(((ChildSelector) s).parent);
+		return 0;
+	}
+
+	/**
+	 * Check if matching depends on element's own position among siblings
+	 */
+	private static boolean isPositional(Selector s) {
+		if (s instanceof SiblingSelector)
+			return true;
+		if (s instanceof DescendantSelector)
+			return isPositional(((DescendantSelector) s).descendant);
+		if (s instanceof ChildSelector)
+			return isPositional(((ChildSelector) s).child);
+		if (s instanceof AndSelector)
+			return isPositional(((AndSelector) s).first) || isPositional(((AndSelector) s).second);
+		return s instanceof PseudoClassSelector;
+	}
+
+	private void collectTestedAttributes(Selector s) {
+		if (s instanceof DescendantSelector)
+			collectTestedAttributes(((DescendantSelector) s).descendant);
+		else if (s instanceof ChildSelector)
+			collectTestedAttributes(((ChildSelector) s).child);
+		else if (s instanceof SiblingSelector)
+			collectTestedAttributes(((SiblingSelector) s).curr);
+		else if (s instanceof AndSelector) {
+			collectTestedAttributes(((AndSelector) s).first);
+			collectTestedAttributes(((AndSelector) s).second);
+		} else if (s instanceof AttributeSelector) {
+			AttributeSelector as = (AttributeSelector) s;
+			for (int i = 0; i < testedAttributes.size(); i++) {
+				String[] a = (String[]) testedAttributes.elementAt(i);
+				if (a[1].equals(as.attr) && (as.ns == null ? a[0] == null : as.ns.equals(a[0])))
+					return;
 			}
+			testedAttributes.add(new String[] { as.ns, as.attr });
+		}
+	}
+
+	private static void collectCompound(Selector s, Vector simple) {
+		if (s instanceof AndSelector) {
+			collectCompound(((AndSelector) s).first, simple);
+			collectCompound(((AndSelector) s).second, simple);
+		} else {
+			simple.add(s);
 		}
 	}
 
 	public void add(CSSStylesheet stylesheet, Set mediaList) {
-		MatcherList ml = new MatcherList(stylesheet, mediaList);
 		Iterator statements = stylesheet.statements.iterator();
 		while (statements.hasNext()) {
 			Object statement = statements.next();
 			if (statement instanceof SelectorRule) {
 				SelectorRule sr = (SelectorRule) statement;
-				if (mediaList == null) {
-					collectSimpleSelectors(sr, order);
+				for (int i = 0; i < sr.selectors.length; i++) {
+					Selector s = sr.selectors[i];
+					StackMatcher matcher = compile(s);
+					if (matcher != null) {
+						getBucket(s).add(new IndexedRule(matcher, sr, s.getSpecificity(), order, mediaList));
+						siblingDepth = Math.max(siblingDepth, getSiblingDepth(s));
+						if (isPositional(s))
+							positional = true;
+						collectTestedAttributes(s);
+					}
 				}
-				ml.addSelectorRule(sr, depth, order++, mediaList != null);
+				order++;
 			}
 		}
-		matcherLists.add(ml);
-	}
-
-	private void applyRule(Selector selector, int order, BaseRule rule, String pseudoElement, Set mediaList) {
-		int specificity = selector.getSpecificity();
-		applyRule(specificity, order, rule, pseudoElement, mediaList);
 	}
 
 	public void applyInlineRule(InlineRule rule) {
+		if (shared != null) {
+			// siblings use this cascade too
+			result = result.cloneObject();
+			shared = null;
+		}
 		applyRule(0x7F000000, order, rule, null, null);
 	}
 
 	private void applyRule(int specificity, int order, BaseRule rule, String pseudoElement, Set mediaList) {
-		if (rule == null || rule.properties == null)
+		if (rule == null)
 			return;
-		Iterator entries = rule.properties.entrySet().iterator();
-		while (entries.hasNext()) {
-			Map.Entry entry = (Map.Entry) entries.next();
-			String prop = (String) entry.getKey();
+		for (int i = 0; i < rule.propertyCount; i++) {
+			int prop = rule.propertyIds[i];
 			int importance = 0;
-			CSSValue value = (CSSValue) entry.getValue();
+			CSSValue value = rule.propertyValues[i];
 			if (value instanceof CSSImportant)
 				importance = 1;
 			Iterator it = (mediaList == null ? null : mediaList.iterator());
@@ -197,46 +507,21 @@ public class CascadeEngine {
 				else
 					style = props.getPropertySetForPseudoElement(pseudoElement);
 				CascadeValue existing = (CascadeValue) style.get(prop);
-				CascadeValue curr = new CascadeValue(value, specificity, importance, order);
-				if (existing == null || curr.compareSpecificity(existing) > 0)
-					style.set(prop, curr);
+				if (existing == null || existing.compareSpecificity(specificity, importance, order) < 0)
+					style.set(prop, new CascadeValue(value, specificity, importance, order));
 			} while (it != null && it.hasNext());
 		}
 	}
 
-	private void applyClassRules(String ns, String name, SMap attrs) {
-		if (attrs != null) {
-			String classAttr = ClassElementMatcher.getClassAttribute(ns, name);
-			if (classAttr != null) {
-				Object classStr = attrs.get(null, classAttr);
-				if (classStr != null) {
-					StringTokenizer tok = new StringTokenizer(classStr.toString(), " ");
-					while (tok.hasMoreTokens()) {
-						String className = tok.nextToken();
-						Vector list = (Vector) classMap.get(className);
-						if (list != null) {
-							int len = list.size();
-							for (int i = 0; i < len; i++) {
-								MatcherRule mr = (MatcherRule) list.get(i);
-								applyRule(mr.matcher.getSelector(), mr.order, mr.rule, null, null);
-							}
-						}
-					}
-				}
-			}
-		}
-	}
-
-	private void applyTagRules(String ns, String name) {
-		Vector list = (Vector) tagMap.get(name);
-		if (list != null) {
-			int len = list.size();
-			for (int i = 0; i < len; i++) {
-				MatcherRule mr = (MatcherRule) list.get(i);
-				NamedElementSelector s = (NamedElementSelector) mr.matcher.getSelector();
-				if (!s.hasElementNamespace() || (ns != null && s.getElementNamespace().equals(ns)))
-					applyRule(s, mr.order, mr.rule, null, null);
-			}
+	private void applyRules(Vector list, StackEntry e) {
+		if (list == null)
+			return;
+		int len = list.size();
+		for (int i = 0; i < len; i++) {
+			IndexedRule ir = (IndexedRule) list.get(i);
+			MatchResult res = ir.matcher.match(e);
+			if (res != null)
+				applyRule(ir.specificity, ir.order, ir.rule, res.pseudoElement, ir.mediaList);
 		}
 	}
 
@@ -251,21 +536,81 @@ public class CascadeEngine {
 	 *            element's attributes
 	 */
 	public void pushElement(String ns, String name, SMap attrs) {
-		depth++;
+		StackEntry prev = (current == null ? lastRoot : current.lastChild);
+		StackEntry e = new StackEntry(ns, name, attrs, current, prev);
+		if (current == null)
+			lastRoot = e;
+		else
+			current.lastChild = e;
+		current = e;
+		StackEntry p = e;
+		for (int i = 0; i < siblingDepth && p != null; i++)
+			p = p.prevSibling;
+		if (p != null)
+			p.prevSibling = null;
+		Object id = null;
+		Object classStr = null;
+		if (attrs != null) {
+			if (!idMap.isEmpty())
+				id = attrs.get(null, "id");
+			String classAttr = (ns == null ? "class" : ClassElementMatcher.getClassAttribute(ns, name));
+			if (classAttr != null)
+				classStr = attrs.get(null, classAttr);
+		}
+		String key = null;
+		if (e.parent != null && !positional && (id == null || !idMap.containsKey(id.toString()))) {
+			key = getSharingKey(ns, name, classStr, attrs);
+			if (e.parent.childStyles != null) {
+				shared = (SharedStyle) e.parent.childStyles.get(key);
+				if (shared != null) {
+					result = shared.result;
+					return;
+				}
+			}
+		}
 		result = new CascadeResult();
-		applyTagRules(ns, name);
-		applyClassRules(ns, name, attrs);
-		Iterator mli = matcherLists.iterator();
-		while (mli.hasNext()) {
-			MatcherList ml = (MatcherList) mli.next();
-			Iterator matchers = ml.matchers.iterator();
-			while (matchers.hasNext()) {
-				MatcherRule mr = (MatcherRule) matchers.next();
-				MatchResult res = mr.matcher.pushElement(ns, name, attrs);
-				if (res != null)
-					applyRule(mr.matcher.getSelector(), mr.order, mr.rule, res.pseudoElement, ml.mediaList);
+		applyRules((Vector) tagMap.get(name), e);
+		if (id != null)
+			applyRules((Vector) idMap.get(id.toString()), e);
+		if (classStr != null) {
+			StringTokenizer tok = new StringTokenizer(classStr.toString(), " ");
+			while (tok.hasMoreTokens())
+				applyRules((Vector) classMap.get(tok.nextToken()), e);
+		}
+		applyRules(anyRules, e);
+		if (key != null) {
+			if (e.parent.childStyles == null)
+				e.parent.childStyles = new Hashtable();
+			shared = new SharedStyle(result);
+			e.parent.childStyles.put(key, shared);
+		} else {
+			shared = null;
+		}
+	}
+
+	/**
+	 * Siblings with the same key are matched by the same rules, provided that
+	 * no rule depends on element's position or id.
+	 */
+	private String getSharingKey(String ns, String name, Object classStr, SMap attrs) {
+		StringBuffer key = new StringBuffer(name);
+		key.append('\u0000');
+		if (ns != null)
+			key.append(ns);
+		if (classStr != null) {
+			key.append('\u0001');
+			key.append(classStr);
+		}
+		for (int i = 0; i < testedAttributes.size(); i++) {
+			String[] a = (String[]) testedAttributes.elementAt(i);
+			Object value = (attrs == null ? null : attrs.get(a[0], a[1]));
+			key.append('\u0002');
+			if (value != null) {
+				key.append('=');
+				key.append(value);
 			}
 		}
+		return key.toString();
 	}
 
 	/**
@@ -273,16 +618,13 @@ public class CascadeEngine {
 	 * should correspond to the elements nesting.
 	 */
 	public void popElement() {
-		depth--;
-		Iterator mli = matcherLists.iterator();
-		while (mli.hasNext()) {
-			MatcherList ml = (MatcherList) mli.next();
-			Iterator matchers = ml.matchers.iterator();
-			while (matchers.hasNext()) {
-				MatcherRule mr = (MatcherRule) matchers.next();
-				mr.matcher.popElement();
-			}
-		}
+		if (current == null)
+			throw new RuntimeException("popElement without pushElement");
+		// children are not needed once the element is done; the element
+		// itself stays reachable as the previous sibling of the next one
+		current.lastChild = null;
+		current.childStyles = null;
+		current = current.parent;
 	}
 
 	BaseRule makeRule(HashMap map) {
@@ -299,7 +641,25 @@ public class CascadeEngine {
 		return rule;
 	}
 
+	/**
+	 * Cascade result for the last pushed element. Results are shared between
+	 * elements and must not be modified.
+	 */
 	public CascadeResult getCascadeResult() {
+		if (shared != null && shared.output != null)
+			return shared.output;
+		CascadeResult r = makeCascadeResult();
+		CascadeResult interned = (CascadeResult) internedResults.get(r);
+		if (interned == null)
+			internedResults.put(r, r);
+		else
+			r = interned;
+		if (shared != null)
+			shared.output = r;
+		return r;
+	}
+
+	private CascadeResult makeCascadeResult() {
 		CascadeResult r = new CascadeResult();
 		Iterator mediaList = result.media();
 		ElementProperties elementProperties = result.getProperties();
@@ -313,10 +673,9 @@ public class CascadeEngine {
 						String pseudoElement = (String) pel.next();
 						InlineRule mps = mediaProps.getPropertySetForPseudoElement(pseudoElement);
 						InlineRule ps = elementProperties.getPropertySetForPseudoElement(pseudoElement);
-						Iterator properties = mps.properties();
-						while (properties.hasNext()) {
-							String property = (String) properties.next();
-							CascadeValue mediaSpecific = (CascadeValue) mps.get(property);
+						for (int i = 0; i < mps.propertyCount; i++) {
+							int property = mps.propertyIds[i];
+							CascadeValue mediaSpecific = (CascadeValue) mps.propertyValues[i];
 							CascadeValue generic = (CascadeValue) ps.get(property);
 							if (generic == null || mediaSpecific.compareSpecificity(generic) > 0) {
 								CSSValue value = mediaSpecific.value;
@@ -328,10 +687,9 @@ public class CascadeEngine {
 				}
 				InlineRule mps = mediaProps.getPropertySet();
 				InlineRule ps = elementProperties.getPropertySet();
-				Iterator properties = mps.properties();
-				while (properties.hasNext()) {
-					String property = (String) properties.next();
-					CascadeValue mediaSpecific = (CascadeValue) mps.get(property);
+				for (int i = 0; i < mps.propertyCount; i++) {
+					int property = mps.propertyIds[i];
+					CascadeValue mediaSpecific = (CascadeValue) mps.propertyValues[i];
 					CascadeValue generic = (CascadeValue) ps.get(property);
 					if (generic == null || mediaSpecific.compareSpecificity(generic) > 0) {
 						CSSValue value = mediaSpecific.value;
@@ -346,20 +704,18 @@ public class CascadeEngine {
 			while (pel.hasNext()) {
 				String pseudoElement = (String) pel.next();
 				InlineRule ps = elementProperties.getPropertySetForPseudoElement(pseudoElement);
-				Iterator properties = ps.properties();
-				while (properties.hasNext()) {
-					String property = (String) properties.next();
-					CascadeValue cv = (CascadeValue) ps.get(property);
+				for (int i = 0; i < ps.propertyCount; i++) {
+					int property = ps.propertyIds[i];
+					CascadeValue cv = (CascadeValue) ps.propertyValues[i];
 					ElementProperties rp = r.getProperties();
 					rp.getPropertySetForPseudoElement(pseudoElement).set(property, cv.value);
 				}
 			}
 		}
 		InlineRule ps = elementProperties.getPropertySet();
-		Iterator properties = ps.properties();
-		while (properties.hasNext()) {
-			String property = (String) properties.next();
-			CascadeValue cv = (CascadeValue) ps.get(property);
+		for (int i = 0; i < ps.propertyCount; i++) {
+			int property = ps.propertyIds[i];
+			CascadeValue cv = (CascadeValue) ps.propertyValues[i];
 			ElementProperties rp = r.getProperties();
 			rp.getPropertySet().set(property, cv.value);
 		}
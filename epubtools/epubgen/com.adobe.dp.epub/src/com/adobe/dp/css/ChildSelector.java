@@ -4,9 +4,9 @@ import java.io.PrintWriter;
 
 public class ChildSelector extends Selector {
 
-	private Selector parent;
+	Selector parent;
 
-	private Selector child;
+	Selector child;
 
 	ChildSelector(Selector parent, Selector child) {
 		this.parent = parent;
@@ -4,9 +4,9 @@ import java.io.PrintWriter;
 
 public class DescendantSelector extends Selector {
 
-	private Selector ancestor;
+	Selector ancestor;
 
-	private Selector descendant;
+	Selector descendant;
 
 	DescendantSelector(Selector ancestor, Selector descendant) {
 		this.descendant = descendant;
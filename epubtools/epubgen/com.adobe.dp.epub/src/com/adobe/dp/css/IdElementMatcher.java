@@ -15,6 +15,8 @@ public class IdElementMatcher extends ElementMatcher {
 	}
 
 	public MatchResult pushElement(String ns, String name, SMap attrs) {
+		if (attrs == null)
+			return null;
 		Object id = attrs.get(null, "id");
 		return id != null && id.toString().equals(this.id) ? MatchResult.ALWAYS : null;
 	}
@@ -4,7 +4,7 @@ import java.io.PrintWriter;
 
 public class IdSelector extends Selector {
 
-	private String id;
+	String id;
 
 	public IdSelector(String id) {
 		this.id = id;
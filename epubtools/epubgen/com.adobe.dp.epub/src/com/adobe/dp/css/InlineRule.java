@@ -22,11 +22,11 @@ public class InlineRule extends BaseRule {
 	public boolean equals(Object arg) {
 		if( getClass() != arg.getClass() )
 			return false;
-		return properties.equals(((InlineRule)arg).properties);
+		return propertiesEqual((InlineRule)arg);
 	}
 
 	public int hashCode() {
-		return properties.hashCode();
+		return propertiesHashCode();
 	}
 	
 	
@@ -4,7 +4,7 @@ import java.io.PrintWriter;
 
 public class PseudoClassSelector extends Selector {
 
-	private String name;
+	String name;
 	
 	PseudoClassSelector(String name) {
 		this.name = name;
@@ -4,9 +4,9 @@ import java.io.PrintWriter;
 
 public class SiblingSelector extends Selector {
 
-	private Selector prev;
+	Selector prev;
 
-	private Selector curr;
+	Selector curr;
 
 	SiblingSelector(Selector prev, Selector curr) {
 		this.prev = prev;
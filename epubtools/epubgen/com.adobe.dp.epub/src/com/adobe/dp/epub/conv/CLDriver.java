@@ -51,6 +51,7 @@ public class CLDriver implements ConversionClient {
 		settings.put("embedFonts", "true");
 		settings.put("adobeMangling", "true");
 		settings.put("pageBreaks", "false");
+		settings.put("streaming", "false");
 		settings.put("targetDir", ".");
 	}
 
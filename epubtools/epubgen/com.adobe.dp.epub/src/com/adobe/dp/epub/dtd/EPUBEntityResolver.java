@@ -1,19 +1,49 @@
 package com.adobe.dp.epub.dtd;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.HashSet;
 import java.util.Hashtable;
 
 import org.xml.sax.EntityResolver;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
+/**
+ * Resolves well-known DTDs and entity sets from copies bundled with this
+ * package. Their bytes are loaded once and shared by all parsers.
+ */
 public class EPUBEntityResolver implements EntityResolver {
 
 	Hashtable systemIdMap = new Hashtable();
 
-	EPUBEntityResolver() {
+	/**
+	 * Cached resource bytes by resource name, shared by all resolvers
+	 */
+	static Hashtable resourceCache = new Hashtable();
+
+	/**
+	 * XHTML DTDs that are replaced by entityTable in entities-only mode
+	 */
+	HashSet xhtmlSystemIds = new HashSet();
+
+	static byte[] entityTable;
+
+	final boolean xhtmlEntitiesOnly;
+
+	private static final String[] xhtmlEntitySets = { "xhtml-lat1.dtdinc", "xhtml-symbol.dtdinc",
+			"xhtml-special.dtdinc" };
+
+	/**
+	 * In entities-only mode XHTML DTDs are not processed at all; instead the
+	 * parser only gets declarations of the standard XHTML named entities
+	 * (Latin-1, symbols and special characters). This is much faster, but
+	 * default attribute values from the DTD are no longer reported.
+	 */
+	EPUBEntityResolver(boolean xhtmlEntitiesOnly) {
+		this.xhtmlEntitiesOnly = xhtmlEntitiesOnly;
 		// fully-resolved names
 		systemIdMap.put("http://www.idpf.org/dtds/2007/opf.dtd", "opf20.dtd");
 		systemIdMap.put("http://openebook.org/dtds/oeb-1.2/oeb12.ent", "oeb12.dtdinc");
@@ -26,14 +56,59 @@ public class EPUBEntityResolver implements EntityResolver {
 		systemIdMap.put("http://www.w3.org/TR/xhtml11/DTD/xhtml11.dtd", "opf20.dtd");
 		systemIdMap.put("http://www.daisy.org/z3986/2005/dtbook-2005-2.dtd", "dtbook-2005-2.dtd");
 		systemIdMap.put("http://www.daisy.org/z3986/2005/ncx-2005-1.dtd", "dtd/ncx-2005-1.dtd");
+
+		xhtmlSystemIds.add("http://www.w3.org/TR/xhtml1/DTD/xhtml1-transitional.dtd");
+		xhtmlSystemIds.add("http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd");
+		xhtmlSystemIds.add("http://www.w3.org/TR/xhtml11/DTD/xhtml11.dtd");
+	}
+
+	private static byte[] getResourceBytes(String res) throws IOException {
+		byte[] bytes = (byte[]) resourceCache.get(res);
+		if (bytes == null) {
+			InputStream in = EPUBEntityResolver.class.getResourceAsStream(res);
+			if (in == null)
+				return null;
+			try {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				byte[] buffer = new byte[4096];
+				int len;
+				while ((len = in.read(buffer)) > 0)
+					out.write(buffer, 0, len);
+				bytes = out.toByteArray();
+			} finally {
+				in.close();
+			}
+			// races only cause the same bytes to be read twice
+			resourceCache.put(res, bytes);
+		}
+		return bytes;
+	}
+
+	private static synchronized byte[] getEntityTable() throws IOException {
+		if (entityTable == null) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			for (int i = 0; i < xhtmlEntitySets.length; i++) {
+				byte[] bytes = getResourceBytes(xhtmlEntitySets[i]);
+				if (bytes != null)
+					out.write(bytes);
+				out.write('\n');
+			}
+			entityTable = out.toByteArray();
+		}
+		return entityTable;
 	}
 
 	public InputSource resolveEntity(String publicId, String systemId) throws SAXException, IOException {
 		InputStream in = null;
-		if (systemIdMap != null) {
+		if (xhtmlEntitiesOnly && xhtmlSystemIds.contains(systemId)) {
+			in = new ByteArrayInputStream(getEntityTable());
+		} else if (systemIdMap != null) {
 			String res = (String) systemIdMap.get(systemId);
-			if (res != null)
-				in = EPUBEntityResolver.class.getResourceAsStream(res);
+			if (res != null) {
+				byte[] bytes = getResourceBytes(res);
+				if (bytes != null)
+					in = new ByteArrayInputStream(bytes);
+			}
 		}
 		if( in == null ) {
 			in = new ByteArrayInputStream(new byte[0]);
@@ -44,5 +119,10 @@ public class EPUBEntityResolver implements EntityResolver {
 		return source;
 	}
 
-	public static final EPUBEntityResolver instance = new EPUBEntityResolver();
+	public static final EPUBEntityResolver instance = new EPUBEntityResolver(false);
+
+	/**
+	 * Resolver that replaces XHTML DTDs by their named entities only
+	 */
+	public static final EPUBEntityResolver entitiesOnlyInstance = new EPUBEntityResolver(true);
 }
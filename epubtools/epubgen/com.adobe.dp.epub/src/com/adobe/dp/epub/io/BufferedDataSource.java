@@ -30,25 +30,91 @@
 
 package com.adobe.dp.epub.io;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
+/**
+ * DataSource which data is written through its OutputStream. Data is kept in
+ * memory until it grows over the threshold, after that it is moved into a
+ * temporary file. Reading the data does not copy it.
+ */
 public class BufferedDataSource extends DataSource {
-	
-	ByteArrayOutputStream out = new ByteArrayOutputStream();
-	
+
+	private static int defaultThreshold = 1024 * 1024;
+
+	SpillBuffer buffer;
+
+	OutputStream out = new OutputStream() {
+
+		public void write(int b) throws IOException {
+			synchronized (BufferedDataSource.this) {
+				buffer.write(b);
+				dataChanged();
+			}
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			synchronized (BufferedDataSource.this) {
+				buffer.write(b, off, len);
+				dataChanged();
+			}
+		}
+
+		public void close() throws IOException {
+			synchronized (BufferedDataSource.this) {
+				buffer.close();
+			}
+		}
+	};
+
 	public BufferedDataSource() {
+		this(defaultThreshold);
+	}
+
+	/**
+	 * @param memoryThreshold
+	 *            maximum number of bytes kept in memory
+	 */
+	public BufferedDataSource(int memoryThreshold) {
+		buffer = new SpillBuffer(memoryThreshold);
+	}
+
+	/**
+	 * Set memory threshold for BufferedDataSources created with the default
+	 * constructor.
+	 */
+	public static void setDefaultMemoryThreshold(int threshold) {
+		defaultThreshold = threshold;
 	}
-	
+
 	public OutputStream getOutputStream() {
 		return out;
 	}
-	
-	public InputStream getInputStream() throws IOException {
-		return new ByteArrayInputStream(out.toByteArray());
+
+	public synchronized InputStream getInputStream() throws IOException {
+		return buffer.getInputStream();
+	}
+
+	public synchronized long getLength() {
+		return buffer.size();
+	}
+
+	public synchronized ByteBuffer getByteBuffer() throws IOException {
+		return buffer.getByteBuffer();
+	}
+
+	public synchronized void writeTo(OutputStream target) throws IOException {
+		buffer.writeTo(target);
+	}
+
+	/**
+	 * Release the data and delete the temporary file, if any. This
+	 * DataSource cannot be used after that: reading or writing it throws
+	 * IllegalStateException.
+	 */
+	public synchronized void dispose() {
+		buffer.dispose();
 	}
-	
 }
@@ -0,0 +1,99 @@
+/*******************************************************************************
+* Copyright (c) 2009, Adobe Systems Incorporated
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without 
+* modification, are permitted provided that the following conditions are met:
+*
+* ·        Redistributions of source code must retain the above copyright 
+*          notice, this list of conditions and the following disclaimer. 
+*
+* ·        Redistributions in binary form must reproduce the above copyright 
+*		   notice, this list of conditions and the following disclaimer in the
+*		   documentation and/or other materials provided with the distribution. 
+*
+* ·        Neither the name of Adobe Systems Incorporated nor the names of its 
+*		   contributors may be used to endorse or promote products derived from
+*		   this software without specific prior written permission. 
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR 
+* ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+* (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+* OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+* THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+* (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+* SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*******************************************************************************/
+
+package com.adobe.dp.epub.io;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * InputStream that reads from its own view of a ByteBuffer; the buffer itself
+ * is never modified, so any number of streams can read from it concurrently.
+ */
+class ByteBufferInputStream extends InputStream {
+
+	ByteBuffer buffer;
+
+	/**
+	 * Inflater in "nowrap" mode needs an extra dummy byte after compressed
+	 * data
+	 */
+	boolean dummyByte;
+
+	ByteBufferInputStream(ByteBuffer buffer) {
+		this(buffer, false);
+	}
+
+	ByteBufferInputStream(ByteBuffer buffer, boolean dummyByte) {
+		this.buffer = buffer.duplicate();
+		this.dummyByte = dummyByte;
+	}
+
+	public int read() {
+		if (buffer.hasRemaining())
+			return buffer.get() & 0xFF;
+		if (dummyByte) {
+			dummyByte = false;
+			return 0;
+		}
+		return -1;
+	}
+
+	public int read(byte[] buf, int offset, int len) {
+		if (len == 0)
+			return 0;
+		int remaining = buffer.remaining();
+		if (remaining == 0) {
+			if (dummyByte) {
+				dummyByte = false;
+				buf[offset] = 0;
+				return 1;
+			}
+			return -1;
+		}
+		if (len > remaining)
+			len = remaining;
+		buffer.get(buf, offset, len);
+		return len;
+	}
+
+	public int available() {
+		return buffer.remaining();
+	}
+
+	public long skip(long n) {
+		if (n <= 0)
+			return 0;
+		if (n > buffer.remaining())
+			n = buffer.remaining();
+		buffer.position(buffer.position() + (int) n);
+		return n;
+	}
+}
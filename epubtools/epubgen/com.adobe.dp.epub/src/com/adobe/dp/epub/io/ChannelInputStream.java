@@ -0,0 +1,87 @@
+/*******************************************************************************
+* Copyright (c) 2009, Adobe Systems Incorporated
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without 
+* modification, are permitted provided that the following conditions are met:
+*
+* ·        Redistributions of source code must retain the above copyright 
+*          notice, this list of conditions and the following disclaimer. 
+*
+* ·        Redistributions in binary form must reproduce the above copyright 
+*		   notice, this list of conditions and the following disclaimer in the
+*		   documentation and/or other materials provided with the distribution. 
+*
+* ·        Neither the name of Adobe Systems Incorporated nor the names of its 
+*		   contributors may be used to endorse or promote products derived from
+*		   this software without specific prior written permission. 
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR 
+* ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+* (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+* OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+* THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+* (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+* SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*******************************************************************************/
+
+package com.adobe.dp.epub.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a range of a file using positional reads, so that any number of such
+ * streams can share one FileChannel.
+ */
+class ChannelInputStream extends InputStream {
+
+	FileChannel channel;
+
+	long position;
+
+	long end;
+
+	ChannelInputStream(FileChannel channel, long position, long length) {
+		this.channel = channel;
+		this.position = position;
+		this.end = position + length;
+	}
+
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		if (read(b, 0, 1) == 1)
+			return b[0] & 0xFF;
+		return -1;
+	}
+
+	public int read(byte[] buf, int offset, int len) throws IOException {
+		if (position >= end)
+			return -1;
+		if (len > end - position)
+			len = (int) (end - position);
+		int got = channel.read(ByteBuffer.wrap(buf, offset, len), position);
+		if (got < 0)
+			return -1;
+		position += got;
+		return got;
+	}
+
+	public int available() {
+		return (int) Math.min(end - position, Integer.MAX_VALUE);
+	}
+
+	public long skip(long n) {
+		if (n > end - position)
+			n = end - position;
+		if (n < 0)
+			return 0;
+		position += n;
+		return n;
+	}
+}
@@ -40,6 +40,64 @@ public abstract class ContainerWriter {
 	public OutputStream getOutputStream( String name ) throws IOException {
 		return getOutputStream( name, true );
 	}
+
+	/**
+	 * Same as {@link #getOutputStream(String, boolean)}, but lets the container
+	 * pick compression settings based on the media type of the entry.
+	 * 
+	 * @param mediaType
+	 *            entry MIME type, may be null
+	 */
+	public OutputStream getOutputStream( String name, String mediaType, boolean eligibleForCompression )
+			throws IOException {
+		return getOutputStream( name, eligibleForCompression );
+	}
+
+	/**
+	 * Write data from the DataSource as a new entry.
+	 * 
+	 * @param name
+	 *            entry name
+	 * @param data
+	 *            entry data
+	 * @param eligibleForCompression
+	 *            true if entry can be compressed
+	 */
+	public void writeEntry( String name, DataSource data, boolean eligibleForCompression ) throws IOException {
+		writeEntry( name, null, data, eligibleForCompression );
+	}
+
+	/**
+	 * Write data from the DataSource as a new entry of the given media type.
+	 * 
+	 * @param mediaType
+	 *            entry MIME type, may be null
+	 */
+	public void writeEntry( String name, String mediaType, DataSource data, boolean eligibleForCompression )
+			throws IOException {
+		OutputStream out = getOutputStream( name, mediaType, eligibleForCompression );
+		try {
+			data.writeTo( out );
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Copy a zip entry into this container as is, without decompressing and
+	 * compressing it again.
+	 * 
+	 * @param name
+	 *            entry name in this container
+	 * @param data
+	 *            source zip entry
+	 * @return true if the entry was written, false if this container (or the
+	 *         source) does not support it; in that case the caller should
+	 *         write the data through {@link #getOutputStream(String, boolean)}
+	 */
+	public boolean writeRawEntry( String name, ZipEntryDataSource data ) throws IOException {
+		return false;
+	}
 	
 	abstract public void close() throws IOException;
 }
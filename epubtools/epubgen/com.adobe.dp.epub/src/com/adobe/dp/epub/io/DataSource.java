@@ -32,7 +32,106 @@ package com.adobe.dp.epub.io;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
 
+/**
+ * Re-readable source of binary data. Only getInputStream() is required;
+ * subclasses override other methods where they can provide the information
+ * cheaply, so that callers can avoid extra passes over large binaries.
+ */
 abstract public class DataSource {
+
+	private long crc = -1;
+
+	private byte[] digest;
+
 	abstract public InputStream getInputStream() throws IOException;
+
+	/**
+	 * Data length in bytes, if it is known without reading the data.
+	 * 
+	 * @return data length or -1 if not known
+	 */
+	public long getLength() {
+		return -1;
+	}
+
+	/**
+	 * CRC32 of the data. Calculated on first call and cached.
+	 */
+	public synchronized long getCRC32() throws IOException {
+		if (crc < 0)
+			calculateChecksums();
+		return crc;
+	}
+
+	/**
+	 * SHA-1 digest of the data. Calculated on first call and cached.
+	 */
+	public synchronized byte[] getContentDigest() throws IOException {
+		if (digest == null)
+			calculateChecksums();
+		return digest;
+	}
+
+	/**
+	 * Get the data as a ByteBuffer, if it is available without copying.
+	 * 
+	 * @return read-only buffer or null if the data is only available as a
+	 *         stream
+	 */
+	public ByteBuffer getByteBuffer() throws IOException {
+		return null;
+	}
+
+	/**
+	 * Copy the data into the given stream. The stream is not closed.
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		InputStream in = getInputStream();
+		try {
+			byte[] buffer = new byte[8192];
+			int len;
+			while ((len = in.read(buffer)) > 0)
+				out.write(buffer, 0, len);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Must be called by subclasses when the data changes, so that cached
+	 * checksums are discarded.
+	 */
+	protected synchronized void dataChanged() {
+		crc = -1;
+		digest = null;
+	}
+
+	private void calculateChecksums() throws IOException {
+		MessageDigest sha;
+		try {
+			sha = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("SHA-1 is not available");
+		}
+		CRC32 crc32 = new CRC32();
+		InputStream in = getInputStream();
+		try {
+			byte[] buffer = new byte[8192];
+			int len;
+			while ((len = in.read(buffer)) > 0) {
+				crc32.update(buffer, 0, len);
+				sha.update(buffer, 0, len);
+			}
+		} finally {
+			in.close();
+		}
+		digest = sha.digest();
+		crc = crc32.getValue();
+	}
 }
@@ -34,6 +34,11 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 public class FileDataSource extends DataSource {
 
@@ -47,4 +52,39 @@ public class FileDataSource extends DataSource {
 		return new FileInputStream(file);
 	}
 
+	public long getLength() {
+		return file.length();
+	}
+
+	/**
+	 * Maps the file into memory
+	 */
+	public ByteBuffer getByteBuffer() throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Uses FileChannel transfer, which lets the system copy data directly
+	 * when possible
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			WritableByteChannel target = Channels.newChannel(out);
+			long size = channel.size();
+			long position = 0;
+			while (position < size)
+				position += channel.transferTo(position, size - position, target);
+		} finally {
+			in.close();
+		}
+	}
+
 }
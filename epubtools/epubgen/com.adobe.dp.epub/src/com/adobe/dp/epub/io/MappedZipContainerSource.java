@@ -0,0 +1,165 @@
+/*******************************************************************************
+* Copyright (c) 2009, Adobe Systems Incorporated
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without 
+* modification, are permitted provided that the following conditions are met:
+*
+* ·        Redistributions of source code must retain the above copyright 
+*          notice, this list of conditions and the following disclaimer. 
+*
+* ·        Redistributions in binary form must reproduce the above copyright 
+*		   notice, this list of conditions and the following disclaimer in the
+*		   documentation and/or other materials provided with the distribution. 
+*
+* ·        Neither the name of Adobe Systems Incorporated nor the names of its 
+*		   contributors may be used to endorse or promote products derived from
+*		   this software without specific prior written permission. 
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR 
+* ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+* (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+* OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+* THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+* (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+* SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*******************************************************************************/
+
+package com.adobe.dp.epub.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * ContainerSource that maps zip archive into memory and reads its central
+ * directory only once. Uncompressed entries can be accessed as ByteBuffers
+ * without copying. DataSources and streams created by this class do not share
+ * any mutable state, so entries can be read from many threads at once.
+ */
+public class MappedZipContainerSource extends ContainerSource {
+
+	ByteBuffer data;
+
+	ZipDirectory directory;
+
+	public MappedZipContainerSource(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new ZipException("zip file is too large to be mapped: " + file);
+			// mapping stays valid after the channel is closed
+			data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		} finally {
+			raf.close();
+		}
+		directory = ZipDirectory.read(data);
+	}
+
+	class EntryDataSource extends ZipEntryDataSource {
+
+		int index;
+
+		EntryDataSource(int index) {
+			this.index = index;
+		}
+
+		ByteBuffer getRawBuffer() throws IOException {
+			long offset = directory.getDataOffset(data, index);
+			long length = directory.compressedSizes[index];
+			if (offset + length > data.limit())
+				throw new ZipException("invalid entry size: " + directory.names[index]);
+			return ZipDirectory.slice(data, (int) offset, (int) length);
+		}
+
+		/**
+		 * Get the entry data as a read-only buffer that shares memory with
+		 * the mapped archive.
+		 * 
+		 * @return entry data; null if the entry is compressed
+		 */
+		public ByteBuffer getByteBuffer() throws IOException {
+			if (directory.methods[index] != ZipStreamWriter.STORED)
+				return null;
+			return getRawBuffer().asReadOnlyBuffer();
+		}
+
+		public InputStream getInputStream() throws IOException {
+			int method = directory.methods[index];
+			if (method == ZipStreamWriter.STORED)
+				return new ByteBufferInputStream(getRawBuffer());
+			if (method == ZipStreamWriter.DEFLATED) {
+				final Inflater inflater = new Inflater(true);
+				return new InflaterInputStream(new ByteBufferInputStream(getRawBuffer(), true), inflater, 4096) {
+
+					boolean closed;
+
+					public void close() throws IOException {
+						if (!closed) {
+							closed = true;
+							// free non-Java-heap memory, see Java bug 4797189
+							inflater.end();
+							super.close();
+						}
+					}
+				};
+			}
+			throw new ZipException("unsupported zip entry: " + directory.names[index]);
+		}
+
+		public int getCompressionMethod() {
+			return directory.methods[index];
+		}
+
+		public long getCRC() {
+			return directory.getCRC(index);
+		}
+
+		public long getSize() {
+			return directory.sizes[index];
+		}
+
+		public long getCompressedSize() {
+			return directory.compressedSizes[index];
+		}
+
+		public InputStream getRawInputStream() throws IOException {
+			if (directory.methods[index] < 0)
+				return null;
+			return new ByteBufferInputStream(getRawBuffer());
+		}
+	}
+
+	public DataSource getDataSource(String name) {
+		int index = directory.find(name);
+		if (index < 0)
+			return null;
+		return new EntryDataSource(index);
+	}
+
+	public Iterator getResourceList() {
+		return Arrays.asList(directory.names).iterator();
+	}
+
+	/**
+	 * Drop the reference to the mapped data. Memory is unmapped when the
+	 * buffer is garbage-collected.
+	 */
+	public void close() {
+		data = null;
+		directory = null;
+	}
+}
@@ -32,70 +32,468 @@ package com.adobe.dp.epub.io;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Hashtable;
+import java.util.Vector;
 import java.util.zip.CRC32;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.Deflater;
 
+/**
+ * ContainerWriter that produces OCF (zip) container. The "mimetype" entry is
+ * always written first and uncompressed.
+ * <p>
+ * When created with more than one compression thread, entries are buffered
+ * and deflated concurrently on a pool of worker threads; they are still
+ * written into the container in the order in which they were created.
+ * <p>
+ * Compression level can be set per media type. Unless adaptive compression is
+ * turned off, the beginning of each compressible entry is trial-compressed and
+ * data that does not compress (e.g. audio, video or archives) is stored.
+ */
 public class OCFContainerWriter extends ContainerWriter {
 
-	ZipOutputStream zip;
+	ZipStreamWriter zip;
+
+	int level = Deflater.DEFAULT_COMPRESSION;
+
+	/**
+	 * Compression levels by media type, or by "type/*" for a whole major type
+	 */
+	Hashtable levels = new Hashtable();
+
+	boolean adaptive = true;
+
+	/**
+	 * Amount of data that is trial-compressed to decide if entry should be
+	 * compressed at all
+	 */
+	static final int SAMPLE_SIZE = 8192;
+
+	/**
+	 * Sample must shrink at least to this percentage to be worth compressing
+	 */
+	static final int SAMPLE_RATIO = 90;
+
+	/**
+	 * Entries (in container order) that are not written yet; only used in
+	 * parallel mode. Also serves as a lock for the worker pool.
+	 */
+	Vector pending;
+
+	/**
+	 * Entries waiting to be picked up by a worker thread
+	 */
+	Vector queue;
+
+	CompressionThread[] workers;
+
+	int maxPending;
+
+	boolean closing;
+
+	static class EntryBuffer extends ByteArrayOutputStream {
+
+		EntryBuffer() {
+			super(4096);
+		}
+
+		byte[] getBuffer() {
+			return buf;
+		}
+	}
 
 	class CompressedEntryStream extends OutputStream {
 
-		CompressedEntryStream() {
+		Deflater def;
+
+		CRC32 crc = new CRC32();
+
+		byte[] buffer = new byte[4096];
+
+		long size;
+
+		long compressedSize;
+
+		byte[] single = new byte[1];
+
+		CompressedEntryStream(int level) {
+			def = new Deflater(level, true);
 		}
 
 		public void write(int b) throws IOException {
-			zip.write(b);
+			single[0] = (byte) b;
+			write(single, 0, 1);
+		}
+
+		public void write(byte[] buf, int offset, int len) throws IOException {
+			if (len == 0)
+				return;
+			crc.update(buf, offset, len);
+			size += len;
+			def.setInput(buf, offset, len);
+			while (!def.needsInput())
+				deflate();
+		}
+
+		private void deflate() throws IOException {
+			int len = def.deflate(buffer, 0, buffer.length);
+			if (len > 0) {
+				zip.write(buffer, 0, len);
+				compressedSize += len;
+			}
 		}
 
 		public void close() throws IOException {
-			zip.closeEntry();
+			if (def == null)
+				return;
+			try {
+				def.finish();
+				while (!def.finished())
+					deflate();
+			} finally {
+				// free non-Java-heap memory, see Java bug 4797189
+				def.end();
+				def = null;
+			}
+			zip.closeEntry(crc.getValue(), compressedSize, size);
 		}
 
 		public void flush() throws IOException {
-			zip.flush();
+		}
+	}
+
+	/**
+	 * Holds back the beginning of an entry until it is known if the entry
+	 * compresses well; then writes it either compressed or stored.
+	 */
+	class SampledEntryStream extends OutputStream {
+
+		String name;
+
+		int level;
+
+		byte[] sample = new byte[SAMPLE_SIZE];
+
+		int sampleSize;
+
+		OutputStream target;
+
+		SampledEntryStream(String name, int level) {
+			this.name = name;
+			this.level = level;
+		}
+
+		public void write(int b) throws IOException {
+			if (target != null) {
+				target.write(b);
+			} else {
+				sample[sampleSize++] = (byte) b;
+				if (sampleSize == sample.length)
+					decide();
+			}
+		}
+
+		public void write(byte[] buf, int offset, int len) throws IOException {
+			if (target == null) {
+				int n = Math.min(len, sample.length - sampleSize);
+				System.arraycopy(buf, offset, sample, sampleSize, n);
+				sampleSize += n;
+				if (sampleSize < sample.length)
+					return;
+				decide();
+				offset += n;
+				len -= n;
+			}
+			target.write(buf, offset, len);
+		}
+
+		private void decide() throws IOException {
+			if (isCompressible(sample, 0, sampleSize)) {
+				zip.putDeferredEntry(name, ZipStreamWriter.DEFLATED);
+				target = new CompressedEntryStream(level);
+			} else {
+				target = new StoredEntryStream(name);
+			}
+			target.write(sample, 0, sampleSize);
+			sample = null;
 		}
 
-		public void write(byte[] arg0, int arg1, int arg2) throws IOException {
-			zip.write(arg0, arg1, arg2);
+		public void close() throws IOException {
+			if (target == null)
+				decide();
+			target.close();
+		}
+
+		public void flush() throws IOException {
 		}
 	}
 
+	/**
+	 * Collects data for an uncompressed entry. Stored entries need CRC and
+	 * size up front, so the data is buffered; CRC is calculated as data
+	 * arrives and large entries are spilled to a temporary file instead of
+	 * being kept in memory.
+	 */
 	class StoredEntryStream extends OutputStream {
 
 		String name;
-		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-		
+
+		SpillBuffer buffer = new SpillBuffer(SpillBuffer.DEFAULT_THRESHOLD);
+
+		CRC32 crc = new CRC32();
+
 		StoredEntryStream(String name) {
 			this.name = name;
 		}
 
 		public void write(int b) throws IOException {
 			buffer.write(b);
+			crc.update(b);
+		}
+
+		public void close() throws IOException {
+			if (buffer == null)
+				return;
+			try {
+				buffer.close();
+				writeEntry();
+			} finally {
+				buffer.dispose();
+				buffer = null;
+			}
+		}
+
+		void writeEntry() throws IOException {
+			long len = buffer.size();
+			zip.putEntry(name, ZipStreamWriter.STORED, crc.getValue(), len, len);
+			buffer.writeTo(zip.getEntryStream());
+			zip.closeEntry();
+		}
+
+		public void flush() throws IOException {
+		}
+
+		public void write(byte[] buf, int offset, int len) throws IOException {
+			buffer.write(buf, offset, len);
+			crc.update(buf, offset, len);
+		}
+	}
+
+	/**
+	 * Stored entry in parallel mode: it is ready as soon as it is closed, but
+	 * it has to wait for the entries in front of it to be written.
+	 */
+	class ParallelStoredEntryStream extends StoredEntryStream {
+
+		boolean queued;
+
+		ParallelStoredEntryStream(String name) {
+			super(name);
 		}
 
 		public void close() throws IOException {
-			byte[] bytes = buffer.toByteArray();
-			ZipEntry entry = new ZipEntry(name);
-			entry.setMethod(ZipOutputStream.STORED);
-			entry.setSize(bytes.length);
-			entry.setCompressedSize(bytes.length);
+			if (queued)
+				return;
+			queued = true;
+			buffer.close();
+			PendingEntry entry = new PendingEntry(name, ZipStreamWriter.STORED, null);
+			entry.stored = this;
+			entry.done = true;
+			synchronized (pending) {
+				pending.add(entry);
+			}
+			writePending(false);
+		}
+
+		void release() {
+			if (buffer != null) {
+				buffer.dispose();
+				buffer = null;
+			}
+		}
+	}
+
+	/**
+	 * Entry data collected in parallel mode. Compressed entries are deflated
+	 * by a worker thread, stored entries are ready as soon as they are closed.
+	 */
+	static class PendingEntry {
+
+		String name;
+
+		int method;
+
+		EntryBuffer data;
+
+		EntryBuffer compressed;
+
+		int level;
+
+		boolean sample;
+
+		ParallelStoredEntryStream stored;
+
+		ZipEntryDataSource raw;
+
+		InputStream rawData;
+
+		DataSource source;
+
+		long sourceLength;
+
+		long crc;
+
+		boolean done;
+
+		Throwable error;
+
+		PendingEntry(String name, int method, EntryBuffer data) {
+			this.name = name;
+			this.method = method;
+			this.data = data;
+		}
+
+		void compress(Deflater def) {
 			CRC32 crc = new CRC32();
-			crc.update(bytes);
-			entry.setCrc(crc.getValue());
-			zip.putNextEntry(entry);
-			zip.write(bytes);
+			crc.update(data.getBuffer(), 0, data.size());
+			this.crc = crc.getValue();
+			if (sample && !isCompressible(data.getBuffer(), 0, Math.min(data.size(), SAMPLE_SIZE))) {
+				method = ZipStreamWriter.STORED;
+				return;
+			}
+			compressed = new EntryBuffer();
+			byte[] buffer = new byte[8192];
+			def.reset();
+			def.setLevel(level);
+			def.setInput(data.getBuffer(), 0, data.size());
+			def.finish();
+			while (!def.finished()) {
+				int len = def.deflate(buffer, 0, buffer.length);
+				compressed.write(buffer, 0, len);
+			}
+			if (sample && compressed.size() >= data.size()) {
+				// did not pay off after all
+				method = ZipStreamWriter.STORED;
+				compressed = null;
+			}
+		}
+
+		void writeTo(ZipStreamWriter zip) throws IOException {
+			if (error != null) {
+				IOException ex = new IOException("could not compress " + name + ": " + error.toString());
+				ex.initCause(error);
+				throw ex;
+			}
+			if (stored != null) {
+				try {
+					stored.writeEntry();
+				} finally {
+					stored.release();
+				}
+				return;
+			}
+			if (raw != null) {
+				writeRaw(zip, name, raw, rawData);
+				return;
+			}
+			if (source != null) {
+				writeStored(zip, name, source, crc, sourceLength);
+				return;
+			}
+			if (compressed == null) {
+				zip.putEntry(name, ZipStreamWriter.STORED, crc, data.size(), data.size());
+				zip.write(data.getBuffer(), 0, data.size());
+			} else {
+				zip.putEntry(name, method, crc, compressed.size(), data.size());
+				zip.write(compressed.getBuffer(), 0, compressed.size());
+			}
 			zip.closeEntry();
 		}
+	}
+
+	class ParallelCompressedEntryStream extends OutputStream {
+
+		String name;
+
+		EntryBuffer buffer = new EntryBuffer();
+
+		int level;
+
+		boolean sample;
+
+		ParallelCompressedEntryStream(String name, int level, boolean sample) {
+			this.name = name;
+			this.level = level;
+			this.sample = sample;
+		}
+
+		public void write(int b) throws IOException {
+			buffer.write(b);
+		}
+
+		public void write(byte[] buf, int offset, int len) throws IOException {
+			buffer.write(buf, offset, len);
+		}
+
+		public void close() throws IOException {
+			if (buffer == null)
+				return;
+			PendingEntry entry = new PendingEntry(name, ZipStreamWriter.DEFLATED, buffer);
+			entry.level = level;
+			entry.sample = sample;
+			buffer = null;
+			synchronized (pending) {
+				pending.add(entry);
+				queue.add(entry);
+				pending.notifyAll();
+			}
+			writePending(false);
+		}
 
 		public void flush() throws IOException {
 		}
+	}
+
+	class CompressionThread extends Thread {
 
-		public void write(byte[] buf, int arg1, int arg2) throws IOException {
-			buffer.write(buf, arg1, arg2);
+		CompressionThread(int index) {
+			super("OCFContainerWriter-" + index);
+			setDaemon(true);
+		}
+
+		public void run() {
+			Deflater def = new Deflater(level, true);
+			try {
+				while (true) {
+					PendingEntry entry;
+					synchronized (pending) {
+						while (queue.isEmpty() && !closing)
+							pending.wait();
+						if (queue.isEmpty())
+							return;
+						entry = (PendingEntry) queue.remove(0);
+					}
+					try {
+						entry.compress(def);
+					} catch (Throwable e) {
+						// also OutOfMemoryError, the writer must not wait forever
+						entry.error = e;
+					} finally {
+						synchronized (pending) {
+							entry.done = true;
+							pending.notifyAll();
+						}
+					}
+				}
+			} catch (InterruptedException e) {
+				// writer is gone
+			} finally {
+				def.end();
+			}
 		}
 	}
 
@@ -104,35 +502,288 @@ public class OCFContainerWriter extends ContainerWriter {
 	}
 
 	public OCFContainerWriter(OutputStream out, String mime) throws IOException {
-		zip = new ZipOutputStream(out);
+		this(out, mime, 1);
+	}
+
+	/**
+	 * Create OCF container writer that compresses entries on several threads.
+	 * 
+	 * @param out
+	 *            stream where container is written
+	 * @param mime
+	 *            container MIME type, stored in "mimetype" entry
+	 * @param compressionThreads
+	 *            number of worker threads used for compression; 1 or less
+	 *            means that entries are compressed on the calling thread as
+	 *            they are written
+	 */
+	public OCFContainerWriter(OutputStream out, String mime, int compressionThreads) throws IOException {
+		zip = new ZipStreamWriter(out);
 		try {
 			byte[] bytes = mime.getBytes("UTF-8");
-			ZipEntry mimetype = new ZipEntry("mimetype");
-			mimetype.setMethod(ZipOutputStream.STORED);
-			mimetype.setSize(bytes.length);
-			mimetype.setCompressedSize(bytes.length);
 			CRC32 crc = new CRC32();
 			crc.update(bytes);
-			mimetype.setCrc(crc.getValue());
-			zip.putNextEntry(mimetype);
-			zip.write(bytes);
+			zip.putEntry("mimetype", ZipStreamWriter.STORED, crc.getValue(), bytes.length, bytes.length);
+			zip.write(bytes, 0, bytes.length);
 			zip.closeEntry();
 		} catch (UnsupportedEncodingException e) {
 			// this should not happen
 			e.printStackTrace();
 		}
+		if (compressionThreads > 1) {
+			pending = new Vector();
+			queue = new Vector();
+			maxPending = 4 * compressionThreads;
+			workers = new CompressionThread[compressionThreads];
+			for (int i = 0; i < workers.length; i++) {
+				workers[i] = new CompressionThread(i);
+				workers[i].start();
+			}
+		}
 	}
 
-	public OutputStream getOutputStream(String name, boolean eligibleForCompression) throws IOException {
-		if( eligibleForCompression ) {
-			zip.putNextEntry(new ZipEntry(name));			
-			return new CompressedEntryStream();		
+	/**
+	 * Number of compression threads that matches the number of available
+	 * processors.
+	 */
+	public static int getDefaultCompressionThreads() {
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Set compression level (see {@link Deflater}) for entries of the given
+	 * media type. Media type can be "type/*" to cover all subtypes.
+	 * Deflater.NO_COMPRESSION makes such entries stored.
+	 */
+	public void setCompressionLevel(String mediaType, int level) {
+		levels.put(mediaType, new Integer(level));
+	}
+
+	/**
+	 * Set compression level for entries that have no specific level set.
+	 */
+	public void setCompressionLevel(int level) {
+		this.level = level;
+	}
+
+	/**
+	 * Turn trial compression of entries on or off. When off, every entry that
+	 * is eligible for compression is deflated.
+	 */
+	public void setAdaptiveCompression(boolean adaptive) {
+		this.adaptive = adaptive;
+	}
+
+	int getCompressionLevel(String mediaType, boolean eligibleForCompression) {
+		if (!eligibleForCompression)
+			return Deflater.NO_COMPRESSION;
+		if (mediaType != null) {
+			Integer l = (Integer) levels.get(mediaType);
+			if (l == null) {
+				int slash = mediaType.indexOf('/');
+				if (slash > 0)
+					l = (Integer) levels.get(mediaType.substring(0, slash) + "/*");
+			}
+			if (l != null)
+				return l.intValue();
+		}
+		return level;
+	}
+
+	/**
+	 * Trial-compress data at the fastest level to see if it compresses.
+	 */
+	static boolean isCompressible(byte[] buf, int offset, int len) {
+		if (len < 256)
+			return true; // too little to tell, and too little to matter
+		Deflater def = new Deflater(Deflater.BEST_SPEED, true);
+		try {
+			def.setInput(buf, offset, len);
+			def.finish();
+			byte[] out = new byte[len];
+			int compressedSize = 0;
+			while (!def.finished() && compressedSize < len)
+				compressedSize += def.deflate(out, compressedSize, len - compressedSize);
+			return def.finished() && compressedSize * 100 < len * SAMPLE_RATIO;
+		} finally {
+			def.end();
+		}
+	}
+
+	static boolean isCompressible(DataSource data) throws IOException {
+		byte[] sample = new byte[SAMPLE_SIZE];
+		int len = 0;
+		ByteBuffer bytes = data.getByteBuffer();
+		if (bytes != null) {
+			len = Math.min(bytes.remaining(), sample.length);
+			bytes.duplicate().get(sample, 0, len);
 		} else {
+			InputStream in = data.getInputStream();
+			try {
+				int n;
+				while (len < sample.length && (n = in.read(sample, len, sample.length - len)) > 0)
+					len += n;
+			} finally {
+				in.close();
+			}
+		}
+		return isCompressible(sample, 0, len);
+	}
+
+	public OutputStream getOutputStream(String name, boolean eligibleForCompression) throws IOException {
+		return getOutputStream(name, null, eligibleForCompression);
+	}
+
+	public OutputStream getOutputStream(String name, String mediaType, boolean eligibleForCompression)
+			throws IOException {
+		return openEntry(name, getCompressionLevel(mediaType, eligibleForCompression), adaptive);
+	}
+
+	OutputStream openEntry(String name, int level, boolean sample) throws IOException {
+		if (workers != null) {
+			if (level != Deflater.NO_COMPRESSION)
+				return new ParallelCompressedEntryStream(name, level, sample);
+			return new ParallelStoredEntryStream(name);
+		}
+		if (level == Deflater.NO_COMPRESSION)
 			return new StoredEntryStream(name);
+		if (sample)
+			return new SampledEntryStream(name, level);
+		zip.putDeferredEntry(name, ZipStreamWriter.DEFLATED);
+		return new CompressedEntryStream(level);
+	}
+
+	/**
+	 * Uncompressed entries which length is known are streamed directly from
+	 * the DataSource. DataSource is read twice if its CRC is not known, but
+	 * the data is never buffered. Compressible entries of known length are
+	 * sampled up front, so incompressible ones take the same path.
+	 */
+	public void writeEntry(String name, String mediaType, DataSource data, boolean eligibleForCompression)
+			throws IOException {
+		long length = data.getLength();
+		int level = getCompressionLevel(mediaType, eligibleForCompression);
+		boolean sample = adaptive;
+		if (level != Deflater.NO_COMPRESSION && sample && length >= 0) {
+			if (!isCompressible(data))
+				level = Deflater.NO_COMPRESSION;
+			sample = false;
+		}
+		if (level != Deflater.NO_COMPRESSION || length < 0) {
+			OutputStream out = openEntry(name, level, sample);
+			try {
+				data.writeTo(out);
+			} finally {
+				out.close();
+			}
+			return;
+		}
+		long crc = data.getCRC32();
+		if (workers == null) {
+			writeStored(zip, name, data, crc, length);
+		} else {
+			PendingEntry entry = new PendingEntry(name, ZipStreamWriter.STORED, null);
+			entry.source = data;
+			entry.sourceLength = length;
+			entry.crc = crc;
+			entry.done = true;
+			synchronized (pending) {
+				pending.add(entry);
+			}
+			writePending(false);
+		}
+	}
+
+	static void writeStored(ZipStreamWriter zip, String name, DataSource data, long crc, long length)
+			throws IOException {
+		zip.putEntry(name, ZipStreamWriter.STORED, crc, length, length);
+		data.writeTo(zip.getEntryStream());
+		zip.closeEntry();
+	}
+
+	public boolean writeRawEntry(String name, ZipEntryDataSource data) throws IOException {
+		int method = data.getCompressionMethod();
+		if (method != ZipStreamWriter.STORED && method != ZipStreamWriter.DEFLATED)
+			return false;
+		InputStream in = data.getRawInputStream();
+		if (in == null)
+			return false;
+		if (workers == null) {
+			writeRaw(zip, name, data, in);
+		} else {
+			PendingEntry entry = new PendingEntry(name, method, null);
+			entry.raw = data;
+			entry.rawData = in;
+			entry.done = true;
+			synchronized (pending) {
+				pending.add(entry);
+			}
+			writePending(false);
+		}
+		return true;
+	}
+
+	static void writeRaw(ZipStreamWriter zip, String name, ZipEntryDataSource data, InputStream in)
+			throws IOException {
+		try {
+			zip.putEntry(name, data.getCompressionMethod(), data.getCRC(), data.getCompressedSize(), data.getSize());
+			byte[] buffer = new byte[8192];
+			int len;
+			while ((len = in.read(buffer)) > 0)
+				zip.write(buffer, 0, len);
+			zip.closeEntry();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Write out all finished entries from the head of the pending list. If
+	 * waitForAll is true, or there are too many entries in flight, wait for
+	 * worker threads to finish them.
+	 */
+	void writePending(boolean waitForAll) throws IOException {
+		while (true) {
+			PendingEntry head;
+			synchronized (pending) {
+				if (pending.isEmpty())
+					return;
+				head = (PendingEntry) pending.elementAt(0);
+				if (!head.done) {
+					if (!waitForAll && pending.size() <= maxPending)
+						return;
+					try {
+						pending.wait();
+					} catch (InterruptedException e) {
+						throw new InterruptedIOException();
+					}
+					continue;
+				}
+				pending.removeElementAt(0);
+			}
+			head.writeTo(zip);
 		}
 	}
 
 	public void close() throws IOException {
-		zip.close();
-	}	
+		try {
+			if (workers != null)
+				writePending(true);
+			zip.finish();
+		} finally {
+			if (workers != null) {
+				synchronized (pending) {
+					closing = true;
+					pending.notifyAll();
+					for (int i = 0; i < pending.size(); i++) {
+						PendingEntry entry = (PendingEntry) pending.elementAt(i);
+						if (entry.stored != null)
+							entry.stored.release();
+					}
+				}
+				workers = null;
+			}
+			zip.close();
+		}
+	}
 }
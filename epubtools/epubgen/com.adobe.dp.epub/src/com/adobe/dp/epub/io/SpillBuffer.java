@@ -0,0 +1,233 @@
+/*******************************************************************************
+* Copyright (c) 2009, Adobe Systems Incorporated
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without 
+* modification, are permitted provided that the following conditions are met:
+*
+* ·        Redistributions of source code must retain the above copyright 
+*          notice, this list of conditions and the following disclaimer. 
+*
+* ·        Redistributions in binary form must reproduce the above copyright 
+*		   notice, this list of conditions and the following disclaimer in the
+*		   documentation and/or other materials provided with the distribution. 
+*
+* ·        Neither the name of Adobe Systems Incorporated nor the names of its 
+*		   contributors may be used to endorse or promote products derived from
+*		   this software without specific prior written permission. 
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR 
+* ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+* (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+* OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+* THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+* (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+* SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*******************************************************************************/
+
+package com.adobe.dp.epub.io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Vector;
+
+/**
+ * Byte buffer that is kept in memory until it grows over the given threshold;
+ * after that its content is moved to a temporary file, so that memory use does
+ * not depend on the amount of data. Data can be read back at any time, also
+ * before the buffer is closed; writing after close appends to the data.
+ */
+class SpillBuffer extends OutputStream {
+
+	static final int DEFAULT_THRESHOLD = 256 * 1024;
+
+	/**
+	 * Temporary files that could not be deleted yet, typically because they
+	 * are still mapped (on Windows); deletion is retried on later disposals
+	 */
+	private static Vector undeletedFiles = new Vector();
+
+	int threshold;
+
+	byte[] buffer;
+
+	int count;
+
+	File file;
+
+	OutputStream fileOut;
+
+	long size;
+
+	boolean disposed;
+
+	SpillBuffer(int threshold) {
+		this.threshold = threshold;
+		this.buffer = new byte[Math.min(threshold, 4096)];
+	}
+
+	public void write(int b) throws IOException {
+		checkDisposed();
+		if (file == null && count < buffer.length) {
+			buffer[count++] = (byte) b;
+			size++;
+		} else {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+	}
+
+	public void write(byte[] buf, int offset, int len) throws IOException {
+		checkDisposed();
+		if (file == null) {
+			if (count + len > threshold) {
+				spill();
+			} else {
+				if (count + len > buffer.length) {
+					byte[] newBuffer = new byte[Math.min(threshold, Math.max(count + len, 2 * buffer.length))];
+					System.arraycopy(buffer, 0, newBuffer, 0, count);
+					buffer = newBuffer;
+				}
+				System.arraycopy(buf, offset, buffer, count, len);
+				count += len;
+				size += len;
+				return;
+			}
+		}
+		if (fileOut == null)
+			fileOut = new BufferedOutputStream(new FileOutputStream(file.getPath(), true), 8192);
+		fileOut.write(buf, offset, len);
+		size += len;
+	}
+
+	private void spill() throws IOException {
+		file = File.createTempFile("epubgen", ".tmp");
+		fileOut = new BufferedOutputStream(new FileOutputStream(file), 8192);
+		fileOut.write(buffer, 0, count);
+		buffer = null;
+		count = 0;
+	}
+
+	/**
+	 * Release the temporary file handle, if any.
+	 */
+	public void close() throws IOException {
+		if (fileOut != null) {
+			fileOut.close();
+			fileOut = null;
+		}
+	}
+
+	public void flush() throws IOException {
+		if (fileOut != null)
+			fileOut.flush();
+	}
+
+	long size() {
+		checkDisposed();
+		return size;
+	}
+
+	boolean isInMemory() {
+		return file == null;
+	}
+
+	/**
+	 * Copy buffered data into the given stream without materializing it as
+	 * one byte array.
+	 */
+	void writeTo(OutputStream out) throws IOException {
+		checkDisposed();
+		if (file == null) {
+			out.write(buffer, 0, count);
+		} else {
+			flush();
+			InputStream in = new FileInputStream(file);
+			try {
+				byte[] buf = new byte[8192];
+				int len;
+				while ((len = in.read(buf)) > 0)
+					out.write(buf, 0, len);
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	/**
+	 * Read buffered data; in-memory data is not copied.
+	 */
+	InputStream getInputStream() throws IOException {
+		checkDisposed();
+		if (file == null)
+			return new ByteArrayInputStream(buffer, 0, count);
+		flush();
+		return new FileInputStream(file);
+	}
+
+	/**
+	 * Get buffered data as a read-only buffer; spilled data is mapped into
+	 * memory.
+	 */
+	ByteBuffer getByteBuffer() throws IOException {
+		checkDisposed();
+		if (file == null)
+			return ByteBuffer.wrap(buffer, 0, count).slice().asReadOnlyBuffer();
+		flush();
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Release memory and delete temporary file (if any).
+	 */
+	void dispose() {
+		disposed = true;
+		buffer = null;
+		count = 0;
+		if (fileOut != null) {
+			try {
+				fileOut.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			fileOut = null;
+		}
+		if (file != null) {
+			if (!file.delete())
+				undeletedFiles.add(file);
+			file = null;
+		}
+		retryDelete();
+	}
+
+	private void checkDisposed() {
+		if (disposed)
+			throw new IllegalStateException("disposed");
+	}
+
+	private static void retryDelete() {
+		synchronized (undeletedFiles) {
+			for (int i = undeletedFiles.size() - 1; i >= 0; i--) {
+				File f = (File) undeletedFiles.elementAt(i);
+				if (f.delete() || !f.exists())
+					undeletedFiles.removeElementAt(i);
+			}
+		}
+	}
+}
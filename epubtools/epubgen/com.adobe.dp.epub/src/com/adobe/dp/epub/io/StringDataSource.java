@@ -33,17 +33,46 @@ package com.adobe.dp.epub.io;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 public class StringDataSource extends DataSource {
 
 	String data;
 	
+	byte[] bytes;
+	
 	public StringDataSource( String data ) {
 		this.data = data;
 	}
 	
+	/**
+	 * String is encoded only once
+	 */
+	synchronized byte[] getBytes() throws IOException {
+		if (bytes == null)
+			bytes = data.getBytes("UTF-8");
+		return bytes;
+	}
+	
 	public InputStream getInputStream() throws IOException {
-		return new ByteArrayInputStream(data.getBytes("UTF-8"));
+		return new ByteArrayInputStream(getBytes());
+	}
+
+	public long getLength() {
+		try {
+			return getBytes().length;
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
+	public ByteBuffer getByteBuffer() throws IOException {
+		return ByteBuffer.wrap(getBytes()).asReadOnlyBuffer();
+	}
+
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(getBytes());
 	}
 
 }
@@ -33,6 +33,8 @@ package com.adobe.dp.epub.io;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.Vector;
@@ -44,12 +46,16 @@ public class ZipContainerSource extends ContainerSource {
 
 	ZipFile zip;
 	Vector entryList;
+	File file;
+	FileChannel channel;
+	ZipDirectory directory;
 
 	public ZipContainerSource(File zip) throws ZipException, IOException {
 		this.zip = new ZipFile(zip);
+		this.file = zip;
 	}
 
-	class DataSourceImpl extends DataSource {
+	class DataSourceImpl extends ZipEntryDataSource {
 
 		ZipEntry entry;
 		
@@ -61,10 +67,51 @@ public class ZipContainerSource extends ContainerSource {
 			return zip.getInputStream(entry);
 		}
 
+		public int getCompressionMethod() {
+			return entry.getMethod();
+		}
+
+		public long getCRC() {
+			return entry.getCrc();
+		}
+
+		public long getSize() {
+			return entry.getSize();
+		}
+
+		public long getCompressedSize() {
+			return entry.getCompressedSize();
+		}
+
+		public InputStream getRawInputStream() throws IOException {
+			ZipDirectory directory = getDirectory();
+			int index = directory.find(entry.getName());
+			if (index < 0 || directory.methods[index] != entry.getMethod())
+				return null;
+			long offset = directory.getDataOffset(channel, index);
+			return new ChannelInputStream(channel, offset, directory.compressedSizes[index]);
+		}
 	}
 	
+	/**
+	 * Central directory is only read when compressed entry data is requested.
+	 */
+	synchronized ZipDirectory getDirectory() throws IOException {
+		if (directory == null) {
+			channel = new RandomAccessFile(file, "r").getChannel();
+			directory = ZipDirectory.read(channel);
+		}
+		return directory;
+	}
+
 	public void close() throws IOException {
 		zip.close();
+		synchronized (this) {
+			if (channel != null) {
+				channel.close();
+				channel = null;
+			}
+		}
 	}
 
 	public DataSource getDataSource(String name) {
@@ -0,0 +1,222 @@
+/*******************************************************************************
+* Copyright (c) 2009, Adobe Systems Incorporated
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without 
+* modification, are permitted provided that the following conditions are met:
+*
+* ·        Redistributions of source code must retain the above copyright 
+*          notice, this list of conditions and the following disclaimer. 
+*
+* ·        Redistributions in binary form must reproduce the above copyright 
+*		   notice, this list of conditions and the following disclaimer in the
+*		   documentation and/or other materials provided with the distribution. 
+*
+* ·        Neither the name of Adobe Systems Incorporated nor the names of its 
+*		   contributors may be used to endorse or promote products derived from
+*		   this software without specific prior written permission. 
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR 
+* ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+* (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+* OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+* THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+* (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+* SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*******************************************************************************/
+
+package com.adobe.dp.epub.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Hashtable;
+import java.util.zip.ZipException;
+
+/**
+ * Compact index of zip archive central directory. Gives access to the
+ * information needed to locate and copy compressed entry data, which
+ * java.util.zip.ZipFile does not expose.
+ */
+class ZipDirectory {
+
+	static final int LOCAL_HEADER_SIZE = 30;
+
+	static final int CENTRAL_HEADER_SIZE = 46;
+
+	static final int END_SIZE = 22;
+
+	int count;
+
+	String[] names;
+
+	/**
+	 * compression method; -1 if entry data cannot be copied verbatim (e.g.
+	 * encrypted or zip64 entries)
+	 */
+	int[] methods;
+
+	int[] crcs;
+
+	long[] compressedSizes;
+
+	long[] sizes;
+
+	long[] offsets;
+
+	/**
+	 * Offset of entry data (after local header); 0 until the local header is
+	 * read
+	 */
+	long[] dataOffsets;
+
+	Hashtable index;
+
+	ZipDirectory(ByteBuffer cd, int count) throws IOException {
+		cd.order(ByteOrder.LITTLE_ENDIAN);
+		this.count = count;
+		names = new String[count];
+		methods = new int[count];
+		crcs = new int[count];
+		compressedSizes = new long[count];
+		sizes = new long[count];
+		offsets = new long[count];
+		dataOffsets = new long[count];
+		index = new Hashtable(count + count / 2 + 1);
+		int pos = 0;
+		byte[] nameBytes = new byte[256];
+		for (int i = 0; i < count; i++) {
+			if (cd.getInt(pos) != 0x02014b50)
+				throw new ZipException("invalid central directory");
+			int flags = cd.getShort(pos + 8) & 0xFFFF;
+			int method = cd.getShort(pos + 10) & 0xFFFF;
+			crcs[i] = cd.getInt(pos + 16);
+			compressedSizes[i] = cd.getInt(pos + 20) & 0xFFFFFFFFL;
+			sizes[i] = cd.getInt(pos + 24) & 0xFFFFFFFFL;
+			int nameLen = cd.getShort(pos + 28) & 0xFFFF;
+			int extraLen = cd.getShort(pos + 30) & 0xFFFF;
+			int commentLen = cd.getShort(pos + 32) & 0xFFFF;
+			offsets[i] = cd.getInt(pos + 42) & 0xFFFFFFFFL;
+			if (nameBytes.length < nameLen)
+				nameBytes = new byte[nameLen];
+			cd.position(pos + CENTRAL_HEADER_SIZE);
+			cd.get(nameBytes, 0, nameLen);
+			names[i] = new String(nameBytes, 0, nameLen, "UTF-8");
+			if ((flags & 1) != 0 || compressedSizes[i] == 0xFFFFFFFFL || sizes[i] == 0xFFFFFFFFL
+					|| offsets[i] == 0xFFFFFFFFL || (method != ZipStreamWriter.STORED && method != ZipStreamWriter.DEFLATED))
+				method = -1;
+			methods[i] = method;
+			index.put(names[i], new Integer(i));
+			pos += CENTRAL_HEADER_SIZE + nameLen + extraLen + commentLen;
+		}
+	}
+
+	static ZipDirectory read(FileChannel channel) throws IOException {
+		long fileSize = channel.size();
+		int tailSize = (int) Math.min(fileSize, 0xFFFF + END_SIZE);
+		ByteBuffer tail = ByteBuffer.allocate(tailSize);
+		readFully(channel, tail, fileSize - tailSize);
+		tail.order(ByteOrder.LITTLE_ENDIAN);
+		int end = findEnd(tail);
+		int count = tail.getShort(end + 10) & 0xFFFF;
+		int cdSize = tail.getInt(end + 12);
+		long cdOffset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+		ByteBuffer cd = ByteBuffer.allocate(cdSize);
+		readFully(channel, cd, cdOffset);
+		return new ZipDirectory(cd, count);
+	}
+
+	/**
+	 * Read central directory of a zip archive which is mapped into memory
+	 * as a whole.
+	 */
+	static ZipDirectory read(ByteBuffer file) throws IOException {
+		int fileSize = file.limit();
+		int tailSize = Math.min(fileSize, 0xFFFF + END_SIZE);
+		ByteBuffer tail = slice(file, fileSize - tailSize, tailSize);
+		int end = findEnd(tail);
+		int count = tail.getShort(end + 10) & 0xFFFF;
+		int cdSize = tail.getInt(end + 12);
+		long cdOffset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+		if (cdOffset + cdSize > fileSize)
+			throw new ZipException("invalid central directory");
+		return new ZipDirectory(slice(file, (int) cdOffset, cdSize), count);
+	}
+
+	/**
+	 * Make an independent little-endian view of a region of the buffer.
+	 */
+	static ByteBuffer slice(ByteBuffer buf, int offset, int length) {
+		ByteBuffer view = buf.duplicate();
+		view.position(offset);
+		view.limit(offset + length);
+		return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	static int findEnd(ByteBuffer tail) throws ZipException {
+		for (int pos = tail.limit() - END_SIZE; pos >= 0; pos--) {
+			if (tail.getInt(pos) == 0x06054b50)
+				return pos;
+		}
+		throw new ZipException("end of central directory not found");
+	}
+
+	static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+		while (buf.hasRemaining()) {
+			int len = channel.read(buf, position);
+			if (len < 0)
+				throw new EOFException();
+			position += len;
+		}
+		buf.flip();
+	}
+
+	int find(String name) {
+		Integer i = (Integer) index.get(name);
+		if (i == null)
+			return -1;
+		return i.intValue();
+	}
+
+	long getCRC(int i) {
+		return crcs[i] & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Locate entry data by reading entry's local header; local header may
+	 * have different extra field length than the central directory.
+	 */
+	synchronized long getDataOffset(FileChannel channel, int i) throws IOException {
+		long offset = dataOffsets[i];
+		if (offset == 0) {
+			ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE);
+			readFully(channel, header, offsets[i]);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			offset = parseLocalHeader(header, i);
+		}
+		return offset;
+	}
+
+	synchronized long getDataOffset(ByteBuffer file, int i) throws IOException {
+		long offset = dataOffsets[i];
+		if (offset == 0) {
+			if (offsets[i] + LOCAL_HEADER_SIZE > file.limit())
+				throw new ZipException("invalid local header: " + names[i]);
+			offset = parseLocalHeader(slice(file, (int) offsets[i], LOCAL_HEADER_SIZE), i);
+		}
+		return offset;
+	}
+
+	private long parseLocalHeader(ByteBuffer header, int i) throws ZipException {
+		if (header.getInt(0) != 0x04034b50)
+			throw new ZipException("invalid local header: " + names[i]);
+		long offset = offsets[i] + LOCAL_HEADER_SIZE + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+		dataOffsets[i] = offset;
+		return offset;
+	}
+}
@@ -0,0 +1,76 @@
+/*******************************************************************************
+* Copyright (c) 2009, Adobe Systems Incorporated
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without 
+* modification, are permitted provided that the following conditions are met:
+*
+* ·        Redistributions of source code must retain the above copyright 
+*          notice, this list of conditions and the following disclaimer. 
+*
+* ·        Redistributions in binary form must reproduce the above copyright 
+*		   notice, this list of conditions and the following disclaimer in the
+*		   documentation and/or other materials provided with the distribution. 
+*
+* ·        Neither the name of Adobe Systems Incorporated nor the names of its 
+*		   contributors may be used to endorse or promote products derived from
+*		   this software without specific prior written permission. 
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR 
+* ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+* (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+* OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+* THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+* (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+* SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*******************************************************************************/
+
+package com.adobe.dp.epub.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * DataSource that represents an entry in a zip archive. Besides uncompressed
+ * data, it can provide entry's compressed bytes, so that the entry can be
+ * copied into another zip archive without recompressing it.
+ */
+public abstract class ZipEntryDataSource extends DataSource {
+
+	/**
+	 * Compression method, either java.util.zip.ZipEntry.STORED or
+	 * java.util.zip.ZipEntry.DEFLATED
+	 */
+	public abstract int getCompressionMethod();
+
+	public abstract long getCRC();
+
+	public abstract long getSize();
+
+	public abstract long getCompressedSize();
+
+	/**
+	 * Get entry data as it is stored in the archive.
+	 * 
+	 * @return compressed data stream or null if compressed data is not
+	 *         available for this entry
+	 */
+	public abstract InputStream getRawInputStream() throws IOException;
+
+	public long getLength() {
+		return getSize();
+	}
+
+	/**
+	 * CRC is known from the archive directory
+	 */
+	public long getCRC32() throws IOException {
+		long crc = getCRC();
+		if (crc < 0)
+			return super.getCRC32();
+		return crc;
+	}
+}
@@ -0,0 +1,291 @@
+/*******************************************************************************
+* Copyright (c) 2009, Adobe Systems Incorporated
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without 
+* modification, are permitted provided that the following conditions are met:
+*
+* ·        Redistributions of source code must retain the above copyright 
+*          notice, this list of conditions and the following disclaimer. 
+*
+* ·        Redistributions in binary form must reproduce the above copyright 
+*		   notice, this list of conditions and the following disclaimer in the
+*		   documentation and/or other materials provided with the distribution. 
+*
+* ·        Neither the name of Adobe Systems Incorporated nor the names of its 
+*		   contributors may be used to endorse or promote products derived from
+*		   this software without specific prior written permission. 
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR 
+* ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+* (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+* OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+* THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+* (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+* SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*******************************************************************************/
+
+package com.adobe.dp.epub.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Vector;
+import java.util.zip.ZipException;
+
+/**
+ * Minimal ZIP writer. Unlike java.util.zip.ZipOutputStream it accepts entry
+ * data that was already compressed elsewhere (e.g. on another thread), as long
+ * as CRC and sizes are supplied by the caller.
+ */
+class ZipStreamWriter {
+
+	static final int STORED = 0;
+
+	static final int DEFLATED = 8;
+
+	static final int FLAG_DESCRIPTOR = 0x08;
+
+	static final int FLAG_UTF8 = 0x800;
+
+	static class Entry {
+
+		byte[] name;
+
+		int method;
+
+		int flags;
+
+		long crc;
+
+		long compressedSize;
+
+		long size;
+
+		long offset;
+	}
+
+	OutputStream out;
+
+	long written;
+
+	int dosTime;
+
+	Vector entries = new Vector();
+
+	HashSet names = new HashSet();
+
+	Entry current;
+
+	long currentWritten;
+
+	byte[] header = new byte[46];
+
+	OutputStream entryStream = new OutputStream() {
+
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		public void write(byte[] buf, int offset, int len) throws IOException {
+			ZipStreamWriter.this.write(buf, offset, len);
+		}
+	};
+
+	ZipStreamWriter(OutputStream out) {
+		this.out = out;
+		this.dosTime = dosTime(Calendar.getInstance());
+	}
+
+	static int dosTime(Calendar c) {
+		int year = c.get(Calendar.YEAR);
+		if (year < 1980)
+			return (1 << 21) | (1 << 16);
+		return ((year - 1980) << 25) | ((c.get(Calendar.MONTH) + 1) << 21) | (c.get(Calendar.DAY_OF_MONTH) << 16)
+				| (c.get(Calendar.HOUR_OF_DAY) << 11) | (c.get(Calendar.MINUTE) << 5) | (c.get(Calendar.SECOND) >> 1);
+	}
+
+	/**
+	 * Start an entry which CRC and sizes are known before its data is written.
+	 */
+	void putEntry(String name, int method, long crc, long compressedSize, long size) throws IOException {
+		checkSizes(name, compressedSize, size);
+		Entry entry = newEntry(name, method);
+		entry.crc = crc;
+		entry.compressedSize = compressedSize;
+		entry.size = size;
+		writeLocalHeader(entry);
+	}
+
+	/**
+	 * Start an entry which CRC and sizes will be supplied in
+	 * {@link #closeEntry(long, long, long)}; they are written into a data
+	 * descriptor that follows entry data.
+	 */
+	void putDeferredEntry(String name, int method) throws IOException {
+		Entry entry = newEntry(name, method);
+		entry.flags |= FLAG_DESCRIPTOR;
+		writeLocalHeader(entry);
+	}
+
+	/**
+	 * Sizes must fit into 32-bit header fields, there is no Zip64 support.
+	 */
+	private static void checkSizes(String name, long compressedSize, long size) throws ZipException {
+		if (compressedSize > 0xFFFFFFFFL || size > 0xFFFFFFFFL)
+			throw new ZipException("entry is too large: " + name);
+	}
+
+	private Entry newEntry(String name, int method) throws IOException {
+		if (current != null)
+			throw new ZipException("previous entry is not closed");
+		if (!names.add(name))
+			throw new ZipException("duplicate entry: " + name);
+		Entry entry = new Entry();
+		entry.name = name.getBytes("UTF-8");
+		entry.method = method;
+		for (int i = 0; i < entry.name.length; i++) {
+			if (entry.name[i] < 0) {
+				entry.flags |= FLAG_UTF8;
+				break;
+			}
+		}
+		entry.offset = written;
+		current = entry;
+		currentWritten = 0;
+		return entry;
+	}
+
+	void write(byte[] buf, int offset, int len) throws IOException {
+		out.write(buf, offset, len);
+		written += len;
+		currentWritten += len;
+	}
+
+	/**
+	 * Get a stream that writes into the current entry. Closing it has no
+	 * effect.
+	 */
+	OutputStream getEntryStream() {
+		return entryStream;
+	}
+
+	void closeEntry() throws IOException {
+		if (current == null)
+			throw new ZipException("no current entry");
+		if ((current.flags & FLAG_DESCRIPTOR) != 0)
+			throw new ZipException("entry sizes are not known: " + new String(current.name, "UTF-8"));
+		if (currentWritten != current.compressedSize)
+			throw new ZipException("invalid entry size: " + new String(current.name, "UTF-8"));
+		entries.add(current);
+		current = null;
+	}
+
+	void closeEntry(long crc, long compressedSize, long size) throws IOException {
+		if (current == null)
+			throw new ZipException("no current entry");
+		if ((current.flags & FLAG_DESCRIPTOR) == 0) {
+			closeEntry();
+			return;
+		}
+		if (currentWritten != compressedSize)
+			throw new ZipException("invalid entry size: " + new String(current.name, "UTF-8"));
+		checkSizes(new String(current.name, "UTF-8"), compressedSize, size);
+		current.crc = crc;
+		current.compressedSize = compressedSize;
+		current.size = size;
+		putInt(header, 0, 0x08074b50);
+		putInt(header, 4, crc);
+		putInt(header, 8, compressedSize);
+		putInt(header, 12, size);
+		writeHeader(16);
+		entries.add(current);
+		current = null;
+	}
+
+	void finish() throws IOException {
+		if (current != null)
+			throw new ZipException("last entry is not closed");
+		long start = written;
+		for (int i = 0; i < entries.size(); i++) {
+			Entry entry = (Entry) entries.elementAt(i);
+			putInt(header, 0, 0x02014b50);
+			putShort(header, 4, 20);
+			putShort(header, 6, entry.method == STORED ? 10 : 20);
+			putShort(header, 8, entry.flags);
+			putShort(header, 10, entry.method);
+			putInt(header, 12, dosTime);
+			putInt(header, 16, entry.crc);
+			putInt(header, 20, entry.compressedSize);
+			putInt(header, 24, entry.size);
+			putShort(header, 28, entry.name.length);
+			putShort(header, 30, 0); // extra
+			putShort(header, 32, 0); // comment
+			putShort(header, 34, 0); // disk
+			putShort(header, 36, 0); // internal attributes
+			putInt(header, 38, 0); // external attributes
+			putInt(header, 42, entry.offset);
+			writeHeader(46);
+			out.write(entry.name);
+			written += entry.name.length;
+		}
+		long size = written - start;
+		if (entries.size() > 0xFFFF || start > 0xFFFFFFFFL)
+			throw new ZipException("archive is too large");
+		putInt(header, 0, 0x06054b50);
+		putShort(header, 4, 0);
+		putShort(header, 6, 0);
+		putShort(header, 8, entries.size());
+		putShort(header, 10, entries.size());
+		putInt(header, 12, size);
+		putInt(header, 16, start);
+		putShort(header, 20, 0);
+		writeHeader(22);
+		out.flush();
+	}
+
+	void close() throws IOException {
+		out.close();
+	}
+
+	private void writeLocalHeader(Entry entry) throws IOException {
+		if (entry.offset > 0xFFFFFFFFL)
+			throw new ZipException("archive is too large");
+		boolean deferred = (entry.flags & FLAG_DESCRIPTOR) != 0;
+		putInt(header, 0, 0x04034b50);
+		putShort(header, 4, entry.method == STORED ? 10 : 20);
+		putShort(header, 6, entry.flags);
+		putShort(header, 8, entry.method);
+		putInt(header, 10, dosTime);
+		putInt(header, 14, deferred ? 0 : entry.crc);
+		putInt(header, 18, deferred ? 0 : entry.compressedSize);
+		putInt(header, 22, deferred ? 0 : entry.size);
+		putShort(header, 26, entry.name.length);
+		putShort(header, 28, 0);
+		writeHeader(30);
+		out.write(entry.name);
+		written += entry.name.length;
+		currentWritten = 0;
+	}
+
+	private void writeHeader(int len) throws IOException {
+		out.write(header, 0, len);
+		written += len;
+	}
+
+	static void putShort(byte[] buf, int offset, int value) {
+		buf[offset] = (byte) value;
+		buf[offset + 1] = (byte) (value >> 8);
+	}
+
+	static void putInt(byte[] buf, int offset, long value) {
+		buf[offset] = (byte) value;
+		buf[offset + 1] = (byte) (value >> 8);
+		buf[offset + 2] = (byte) (value >> 16);
+		buf[offset + 3] = (byte) (value >> 24);
+	}
+}
@@ -148,6 +148,13 @@ public class FontResource extends Resource {
 		out.close();
 	}
 
+	/**
+	 * Font data is obfuscated when serialized
+	 */
+	boolean isVerbatim() {
+		return false;
+	}
+
 	/**
 	 * Return false to inhibit compressing
 	 */
@@ -52,6 +52,8 @@ public class NCXResource extends Resource {
 
 	Vector pages = new Vector();
 
+	boolean modified;
+
 	private static final String ncxns = "http://www.daisy.org/z3986/2005/ncx/";
 
 	static class Page {
@@ -70,10 +72,12 @@ public class NCXResource extends Resource {
 	}
 
 	public TOCEntry getRootTOCEntry() {
+		modified = true;
 		return rootTOCEntry;
 	}
 
 	public TOCEntry createTOCEntry(String title, XRef xref) {
+		modified = true;
 		return new TOCEntry(title, xref);
 	}
 
@@ -115,6 +119,7 @@ public class NCXResource extends Resource {
 
 		location.addUsage(XRef.USAGE_PAGE);
 		pages.add(new Page(name, location));
+		modified = true;
 	}
 
 	public void serialize(OutputStream out) throws IOException {
@@ -334,7 +339,15 @@ public class NCXResource extends Resource {
 	}
 
 	public void load(DataSource data) throws IOException {
+		source = data;
+	}
 
+	/**
+	 * Table of contents is not parsed, so loaded NCX is written out as it was
+	 * read unless new entries or pages were added to it.
+	 */
+	boolean isVerbatim() {
+		return source != null && !modified && !epub.resourcesRenamed;
 	}
 
 }
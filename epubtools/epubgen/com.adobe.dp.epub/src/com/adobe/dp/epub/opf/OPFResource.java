@@ -36,8 +36,6 @@ import java.io.OutputStream;
 import java.util.Iterator;
 
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
@@ -50,6 +48,7 @@ import com.adobe.dp.epub.io.ContainerSource;
 import com.adobe.dp.epub.util.PathUtil;
 import com.adobe.dp.epub.util.Translit;
 import com.adobe.dp.xml.util.SMapImpl;
+import com.adobe.dp.xml.util.XMLReaderPool;
 import com.adobe.dp.xml.util.XMLSerializer;
 import com.sun.org.apache.xalan.internal.xsltc.runtime.Hashtable;
 
@@ -180,16 +179,17 @@ public class OPFResource extends Resource {
 
 	public void load(ContainerSource container, String opfName) throws IOException {
 		InputStream in = container.getDataSource(opfName).getInputStream();
-		SAXParserFactory factory = SAXParserFactory.newInstance();
-		factory.setNamespaceAware(true);
 		try {
-			SAXParser parser = factory.newSAXParser();
-			XMLReader reader = parser.getXMLReader();
-			XMLHandler handler = new XMLHandler(opfName);
-			reader.setContentHandler(handler);
-			reader.setEntityResolver(EPUBEntityResolver.instance);
-			InputSource source = new InputSource(in);
-			reader.parse(source);
+			XMLReader reader = XMLReaderPool.getReader();
+			try {
+				XMLHandler handler = new XMLHandler(opfName);
+				reader.setContentHandler(handler);
+				reader.setEntityResolver(EPUBEntityResolver.instance);
+				InputSource source = new InputSource(in);
+				reader.parse(source);
+			} finally {
+				XMLReaderPool.releaseReader(reader);
+			}
 		} catch (ParserConfigurationException e) {
 			e.printStackTrace();
 			throw new RuntimeException(e.toString());
@@ -43,6 +43,11 @@ public class OPSResource extends Resource {
 	
 	OPSDocument document;
 
+	/**
+	 * Set once the resource is written in streaming mode
+	 */
+	boolean released;
+
 	OPSResource(Publication epub, String name) {
 		super(epub, name, "application/xhtml+xml", null);
 	}
@@ -52,9 +57,92 @@ public class OPSResource extends Resource {
 	}
 
 	public OPSDocument getDocument() {
-		if (document == null)
-			document = new OPSDocument(this);
-		return document;
+		OPSDocument doc;
+		synchronized (this) {
+			if (released)
+				throw new IllegalStateException("document was released after it was written: " + name);
+			if (document == null) {
+				if (source != null) {
+					// parsed lazily or unloaded earlier
+					doc = new OPSDocument(this);
+					try {
+						doc.load(source);
+					} catch (Exception e) {
+						e.printStackTrace();
+						// keep it unmodified, so that the source is copied as is
+						doc = new OPSDocument(this);
+					}
+					document = doc;
+				} else {
+					document = new OPSDocument(this);
+				}
+			}
+			doc = document;
+		}
+		epub.documentAccessed(this);
+		return doc;
+	}
+
+	/**
+	 * Replace the document of this resource. The document must be created for
+	 * this resource.
+	 */
+	public synchronized void setDocument(OPSDocument document) {
+		if (document.getResource() != this)
+			throw new IllegalArgumentException("document belongs to another resource");
+		if (released)
+			throw new IllegalStateException("document was released after it was written: " + name);
+		this.document = document;
+	}
+
+	/**
+	 * Put back a document that was unloaded while its caller still held on to
+	 * it. Fails if the resource has parsed a new copy since then, as changes
+	 * made to either copy would be lost.
+	 */
+	public synchronized void reattachDocument(OPSDocument document) {
+		if (document.getResource() != this)
+			throw new IllegalArgumentException("document belongs to another resource");
+		if (released)
+			throw new IllegalStateException("document was released after it was written: " + name);
+		if (this.document == null) {
+			this.document = document;
+		} else if (this.document != document) {
+			throw new IllegalStateException("document was unloaded and parsed again: " + name);
+		}
+	}
+
+	/**
+	 * Drop the document after the resource was written in streaming mode.
+	 */
+	synchronized void releaseDocument() {
+		released = true;
+		document = null;
+		source = null;
+	}
+
+	/**
+	 * Drop the parsed document if it can be parsed again from the source.
+	 * 
+	 * @return true if the document was dropped
+	 */
+	synchronized boolean unloadDocument() {
+		if (document == null || source == null || !document.isDiscardable())
+			return false;
+		document = null;
+		return true;
+	}
+
+	/**
+	 * Indicates if the document can be had without parsing it: it is in
+	 * memory, or it is new and there is nothing to parse.
+	 */
+	synchronized boolean isDocumentResident() {
+		return document != null || (source == null && !released);
+	}
+
+	synchronized boolean isDocumentLoaded() {
+		return document != null;
 	}
 
 	OPSResource[] splitLargeChapter(Publication pub, int sizeToSplit) {
@@ -63,17 +151,21 @@ public class OPSResource extends Resource {
 		int targetSize = sizeToSplit;
 		Vector res = new Vector();
 		res.add(this);
-		OPSDocument doc = document;
+		OPSDocument doc = getDocument();
 		while (true) {
 			String name = pub.makeUniqueResourceName(getName());
 			OPSResource r = pub.createOPSResource(name);
-			if (!doc.peelOffBack(r.getDocument(), targetSize)) {
+			// elements are reassigned to their final document once at the end,
+			// not every time the remaining content is peeled off
+			if (!doc.peelOffBack(r.getDocument(), targetSize, false)) {
 				pub.removeResource(r);
 				break;
 			}
 			doc = r.getDocument();
 			res.add(r);
 		}
+		for (int i = 1; i < res.size(); i++)
+			((OPSResource) res.elementAt(i)).getDocument().adoptElements();
 		OPSResource[] result = new OPSResource[res.size()];
 		res.copyInto(result);
 		return result;
@@ -91,5 +183,13 @@ public class OPSResource extends Resource {
 	public void load(DataSource data) throws Exception {
 		document = new OPSDocument(this);
 		document.load(data);
+		source = data;
+	}
+
+	/**
+	 * Loaded document that was not modified is written out as it was read.
+	 */
+	boolean isVerbatim() {
+		return source != null && !epub.resourcesRenamed && (document == null || !document.isModified());
 	}
 }
@@ -34,7 +34,6 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
@@ -42,13 +41,11 @@ import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Random;
 import java.util.Stack;
 import java.util.Vector;
 
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
-
 import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
@@ -56,18 +53,22 @@ import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.DefaultHandler;
 
 import com.adobe.dp.epub.dtd.EPUBEntityResolver;
+import com.adobe.dp.epub.io.BufferedDataSource;
 import com.adobe.dp.epub.io.ContainerSource;
 import com.adobe.dp.epub.io.ContainerWriter;
 import com.adobe.dp.epub.io.DataSource;
+import com.adobe.dp.epub.io.MappedZipContainerSource;
 import com.adobe.dp.epub.io.ZipContainerSource;
 import com.adobe.dp.epub.ncx.TOCEntry;
 import com.adobe.dp.epub.ops.OPSDocument;
 import com.adobe.dp.epub.otf.FontEmbeddingReport;
 import com.adobe.dp.epub.otf.FontSubsetter;
+import com.adobe.dp.epub.style.Stylesheet;
 import com.adobe.dp.epub.util.TOCLevel;
 import com.adobe.dp.otf.DefaultFontLocator;
 import com.adobe.dp.otf.FontLocator;
 import com.adobe.dp.xml.util.SMapImpl;
+import com.adobe.dp.xml.util.XMLReaderPool;
 import com.adobe.dp.xml.util.XMLSerializer;
 
 /**
@@ -106,6 +107,11 @@ public class Publication {
 
 	Hashtable resourceRefsByName = new Hashtable();
 
+	/**
+	 * References redirected to another resource by deduplicateResources
+	 */
+	Vector redirectedRefs = new Vector();
+
 	Hashtable resourcesById = new Hashtable();
 
 	Hashtable namingIndices = new Hashtable();
@@ -130,6 +136,56 @@ public class Publication {
 
 	ContainerSource containerSource;
 
+	boolean deduplicateResources;
+
+	boolean xhtmlEntitiesOnly;
+
+	/**
+	 * Resources that may be collapsed by deduplicateResources, in creation
+	 * order
+	 */
+	Vector dedupCandidates = new Vector();
+
+	/**
+	 * Set once any resource is renamed; references in unchanged loaded
+	 * resources may be stale after that, so they have to be regenerated
+	 */
+	boolean resourcesRenamed;
+
+	int maxLoadedDocuments;
+
+	/**
+	 * OPSResources with parsed documents in access order, used for lazy
+	 * loading
+	 */
+	LinkedHashMap loadedDocuments;
+
+	/**
+	 * Container where finished resources are written in streaming mode, null
+	 * if not streaming
+	 */
+	ContainerWriter streamingContainer;
+
+	/**
+	 * Resources already written to the streaming container
+	 */
+	HashSet streamedResources = new HashSet();
+
+	/**
+	 * Temporary buffers backing this Publication's resources, disposed once it
+	 * is serialized
+	 */
+	Vector bufferedSources = new Vector();
+
+	/**
+	 * Last play order assigned in streamed chapters
+	 */
+	int streamedPlayOrder;
+
+	FontSubsetter streamingSubsetter;
+
+	StyleResource streamingFontStyle;
+
 	static class SimpleMetadata {
 
 		String ns;
@@ -170,6 +226,18 @@ public class Publication {
 		this(new ZipContainerSource(file));
 	}
 
+	/**
+	 * Create a new EPUB document by reading it from a file. If mapped is true,
+	 * the file is memory-mapped, which lets entries be read from many threads
+	 * at once, but keeps the file locked on Windows until the mapping is
+	 * garbage-collected. Files too large to be mapped are read through
+	 * ZipContainerSource.
+	 */
+	public Publication(File file, boolean mapped) throws Exception {
+		this(mapped && file.length() <= Integer.MAX_VALUE ? (ContainerSource) new MappedZipContainerSource(file)
+				: new ZipContainerSource(file));
+	}
+
 	public Publication(ContainerSource containerSource) throws Exception {
 		this.containerSource = containerSource;
 		DataSource cont = containerSource.getDataSource("META-INF/container.xml");
@@ -261,10 +329,233 @@ public class Publication {
 		this.translit = translit;
 	}
 
+	/**
+	 * Collapse bitmap images and generic resources that have identical
+	 * content (e.g. the same logo embedded many times under different names)
+	 * into a single resource when this Publication is serialized. References
+	 * to the removed duplicates are redirected to the remaining resource.
+	 * Only resources created after this call are considered; resources
+	 * loaded from an existing container never are.
+	 * 
+	 * @param deduplicate
+	 *            true to enable deduplication
+	 */
+	public void setDeduplicateResources(boolean deduplicate) {
+		this.deduplicateResources = deduplicate;
+	}
+
+	/**
+	 * Parse XHTML documents loaded from the container with only the standard
+	 * XHTML named entities declared instead of the full XHTML DTD. This is
+	 * much faster, but default attribute values from the DTD are lost.
+	 * 
+	 * @param entitiesOnly
+	 *            true to skip XHTML DTD processing
+	 */
+	public void setXHTMLEntitiesOnly(boolean entitiesOnly) {
+		this.xhtmlEntitiesOnly = entitiesOnly;
+	}
+
+	public boolean isXHTMLEntitiesOnly() {
+		return xhtmlEntitiesOnly;
+	}
+
+	/**
+	 * Parse XHTML documents and stylesheets loaded from the container lazily,
+	 * when they are first accessed, rather than in parseResource. At most
+	 * maxLoadedDocuments unmodified documents are kept in memory; least
+	 * recently used ones are dropped and parsed again from the container when
+	 * they are needed. Modified documents and documents referenced by XRefs
+	 * are always kept.
+	 * 
+	 * @param maxLoadedDocuments
+	 *            number of parsed documents to keep, 0 to parse eagerly
+	 */
+	public synchronized void setLazyLoading(int maxLoadedDocuments) {
+		this.maxLoadedDocuments = maxLoadedDocuments;
+		if (maxLoadedDocuments > 0) {
+			if (loadedDocuments == null)
+				loadedDocuments = new LinkedHashMap(16, 0.75f, true);
+		} else {
+			loadedDocuments = null;
+		}
+	}
+
+	/**
+	 * Switch to streaming mode: chapters are written to the container as soon
+	 * as they are finished (see {@link #finishResource(Resource)}) and their
+	 * documents are released, so that the whole book never has to be in
+	 * memory. Resources that are not finished explicitly, as well as OPF and
+	 * NCX, are written by {@link #serialize(ContainerWriter)}, which must be
+	 * called with the same container.
+	 * <p>
+	 * Finished chapters cannot be changed or renamed; they must be finished in
+	 * spine order, and TOC entries and page map entries pointing into a
+	 * chapter must be added before it is finished. Resources are not
+	 * deduplicated in streaming mode.
+	 * 
+	 * @param container
+	 *            container where resources are written
+	 */
+	public void startStreaming(ContainerWriter container) {
+		if (streamingContainer != null)
+			throw new RuntimeException("Publication is already streaming");
+		streamingContainer = container;
+	}
+
+	public boolean isStreaming() {
+		return streamingContainer != null;
+	}
+
+	/**
+	 * Embed fonts in streaming mode. Text of each chapter is collected when it
+	 * is finished; font resources and &#064;font-face rules are added when
+	 * Publication is serialized. Must be called before any chapter is
+	 * finished.
+	 * 
+	 * @param styleResource
+	 *            style resource where &#064;font-face rules will be added; a
+	 *            reference to it is added to each chapter
+	 * @param locator
+	 *            FontLocator object to lookup font files
+	 * @return font embedding report, complete once Publication is serialized
+	 */
+	public FontEmbeddingReport addFontsWhileStreaming(StyleResource styleResource, FontLocator locator) {
+		if (streamingContainer == null)
+			throw new RuntimeException("Publication is not streaming");
+		if (!streamedResources.isEmpty())
+			throw new RuntimeException("Some resources are already finished");
+		streamingSubsetter = new FontSubsetter(this, styleResource, locator);
+		streamingFontStyle = styleResource;
+		return streamingSubsetter;
+	}
+
+	/**
+	 * Write a finished resource to the streaming container now. For OPS
+	 * resources, play order is assigned, fonts are collected (if requested)
+	 * and the document is released after it is written.
+	 * 
+	 * @param resource
+	 *            resource to write
+	 * @throws IOException
+	 *             if I/O error occurs while writing
+	 */
+	public void finishResource(Resource resource) throws IOException {
+		if (streamingContainer == null)
+			throw new RuntimeException("Publication is not streaming");
+		if (streamedResources.contains(resource))
+			return;
+		if (resource instanceof OPSResource) {
+			OPSResource ops = (OPSResource) resource;
+			OPSDocument doc = ops.getDocument();
+			NCXResource ncx = getTOC();
+			if (ncx != null)
+				ncx.prepareTOC(); // page map may move xrefs to chapter roots
+			if (spine.contains(ops))
+				streamedPlayOrder = doc.assignPlayOrder(streamedPlayOrder);
+			if (streamingSubsetter != null)
+				addStreamingFonts(doc);
+			// XRefs into this document must outlive its elements
+			doc.detachXRefs();
+			ops.serialize(streamingContainer);
+			synchronized (this) {
+				streamedResources.add(ops);
+				if (loadedDocuments != null)
+					loadedDocuments.remove(ops);
+			}
+			ops.releaseDocument();
+		} else {
+			resource.serialize(streamingContainer);
+			synchronized (this) {
+				streamedResources.add(resource);
+			}
+		}
+	}
+
+	private void addStreamingFonts(OPSDocument doc) {
+		doc.addStyleResource(streamingFontStyle.getResourceRef());
+		doc.addFonts(streamingSubsetter, streamingFontStyle);
+	}
+
+	void documentAccessed(OPSResource r) {
+		Vector evicted = null;
+		synchronized (this) {
+			if (loadedDocuments == null || r.source == null)
+				return;
+			loadedDocuments.put(r, r);
+			if (loadedDocuments.size() <= maxLoadedDocuments)
+				return;
+			evicted = new Vector();
+			Iterator it = loadedDocuments.keySet().iterator();
+			while (loadedDocuments.size() > maxLoadedDocuments && it.hasNext()) {
+				OPSResource eldest = (OPSResource) it.next();
+				if (eldest == r)
+					break;
+				// documents that cannot be dropped are not counted
+				it.remove();
+				evicted.add(eldest);
+			}
+		}
+		// not under the Publication lock: resources lock themselves
+		for (int i = 0; i < evicted.size(); i++)
+			((OPSResource) evicted.elementAt(i)).unloadDocument();
+	}
+
+	/**
+	 * Remove resources with duplicate content now. Resources are compared by
+	 * media type, length and SHA-1 digest of their data; the first created
+	 * one is kept.
+	 * 
+	 * @see #setDeduplicateResources(boolean)
+	 * @return number of resources removed
+	 */
+	public int deduplicateResources() {
+		Hashtable canonical = new Hashtable();
+		Vector candidates = new Vector(dedupCandidates);
+		int removed = 0;
+		for (int i = 0; i < candidates.size(); i++) {
+			Resource r = (Resource) candidates.elementAt(i);
+			if (r.source == null || spine.contains(r))
+				continue;
+			String key;
+			try {
+				key = r.mediaType + " " + r.source.getLength() + " " + toHex(r.source.getContentDigest());
+			} catch (IOException e) {
+				e.printStackTrace();
+				continue;
+			}
+			Resource target = (Resource) canonical.get(key);
+			if (target == null) {
+				canonical.put(key, r);
+				continue;
+			}
+			removeResource(r);
+			ResourceRef ref = (ResourceRef) resourceRefsByName.remove(r.name);
+			if (ref != null) {
+				ref.name = target.name;
+				if (resourceRefsByName.get(target.name) == null)
+					resourceRefsByName.put(target.name, ref);
+				redirectedRefs.add(ref);
+			}
+			removed++;
+		}
+		return removed;
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < bytes.length; i++) {
+			int b = bytes[i] & 0xFF;
+			sb.append(Character.forDigit(b >> 4, 16));
+			sb.append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
 	public void splitLargeChapters(int sizeToSplit) {
 		for (int i = 0; i < spine.size(); i++) {
 			Resource item = (Resource) spine.elementAt(i);
-			if (item instanceof OPSResource) {
+			if (item instanceof OPSResource && !streamedResources.contains(item)) {
 				OPSResource[] split = ((OPSResource) item).splitLargeChapter(this, sizeToSplit);
 				if (split != null) {
 					spine.remove(i);
@@ -278,6 +569,26 @@ public class Publication {
 		}
 	}
 
+	/**
+	 * Split a single chapter if it is larger than sizeToSplit. Resources
+	 * created for the split content are placed in the spine right after the
+	 * chapter.
+	 * 
+	 * @return chapter resources in order (starting with the given one), or
+	 *         null if the resource cannot be split
+	 */
+	public OPSResource[] splitLargeChapter(OPSResource resource, int sizeToSplit) {
+		OPSResource[] split = resource.splitLargeChapter(this, sizeToSplit);
+		if (split != null) {
+			int index = spine.indexOf(resource);
+			if (index >= 0) {
+				for (int j = 1; j < split.length; j++)
+					spine.insertElementAt(split[j], index + j);
+			}
+		}
+		return split;
+	}
+
 	public void splitLargeChapters() {
 		splitLargeChapters(100000);
 	}
@@ -477,7 +788,7 @@ public class Publication {
 	 *            desired resource name
 	 * @return unique resource name based on the desired one
 	 */
-	public String makeUniqueResourceName(String baseName) {
+	public synchronized String makeUniqueResourceName(String baseName) {
 		if (resourcesByName.get(baseName) == null)
 			return baseName;
 		int index = baseName.lastIndexOf('.');
@@ -512,13 +823,13 @@ public class Publication {
 	 *            OPS resource name
 	 * @return new OPSResource
 	 */
-	public OPSResource createOPSResource(String name) {
+	public synchronized OPSResource createOPSResource(String name) {
 		if (resourcesByName.get(name) != null)
 			throw new RuntimeException("Resource already exists: " + name);
 		return createOPSResource(name, "application/xhtml+xml");
 	}
 
-	public OPSResource createOPSResource(String name, String mediaType) {
+	public synchronized OPSResource createOPSResource(String name, String mediaType) {
 		if (resourcesByName.get(name) != null)
 			throw new RuntimeException("Resource already exists: " + name);
 		OPSResource resource = new OPSResource(this, name, mediaType);
@@ -526,8 +837,11 @@ public class Publication {
 		return resource;
 	}
 
-	public void removeResource(Resource r) {
+	public synchronized void removeResource(Resource r) {
 		resourcesByName.remove(r.name);
+		dedupCandidates.remove(r);
+		if (loadedDocuments != null)
+			loadedDocuments.remove(r);
 		if (r.id != null) {
 			resourcesById.remove(r.id);
 			r.id = null;
@@ -536,17 +850,24 @@ public class Publication {
 			toc = null;
 	}
 
-	public void renameResource(Resource r, String newName) {
+	public synchronized void renameResource(Resource r, String newName) {
 		if (resourcesByName.get(newName) != null)
 			throw new RuntimeException("Resource already exists: " + newName);
-		resourcesByName.remove(r.name);
-		ResourceRef ref = (ResourceRef) resourceRefsByName.remove(r.name);
+		String oldName = r.name;
+		resourcesRenamed = true;
+		resourcesByName.remove(oldName);
+		ResourceRef ref = (ResourceRef) resourceRefsByName.remove(oldName);
 		r.name = newName;
 		resourcesByName.put(newName, r);
 		if (ref != null) {
 			ref.name = newName;
 			resourceRefsByName.put(newName, ref);
 		}
+		for (int i = 0; i < redirectedRefs.size(); i++) {
+			ResourceRef other = (ResourceRef) redirectedRefs.elementAt(i);
+			if (other.name.equals(oldName))
+				other.name = newName;
+		}
 	}
 
 	/**
@@ -560,11 +881,13 @@ public class Publication {
 	 *            resource data
 	 * @return new BitmapImageResource
 	 */
-	public BitmapImageResource createBitmapImageResource(String name, String mediaType, DataSource data) {
+	public synchronized BitmapImageResource createBitmapImageResource(String name, String mediaType, DataSource data) {
 		if (resourcesByName.get(name) != null)
 			throw new RuntimeException("Resource already exists: " + name);
 		BitmapImageResource resource = new BitmapImageResource(this, name, mediaType, data);
 		resourcesByName.put(name, resource);
+		if (deduplicateResources)
+			dedupCandidates.add(resource);
 		return resource;
 	}
 
@@ -575,7 +898,7 @@ public class Publication {
 	 *            resource name
 	 * @return new StyleResource
 	 */
-	public StyleResource createStyleResource(String name) {
+	public synchronized StyleResource createStyleResource(String name) {
 		if (resourcesByName.get(name) != null)
 			throw new RuntimeException("Resource already exists: " + name);
 		StyleResource resource = new StyleResource(this, name);
@@ -594,11 +917,13 @@ public class Publication {
 	 *            resource data
 	 * @return new Resource
 	 */
-	public Resource createGenericResource(String name, String mediaType, DataSource data) {
+	public synchronized Resource createGenericResource(String name, String mediaType, DataSource data) {
 		if (resourcesByName.get(name) != null)
 			throw new RuntimeException("Resource already exists: " + name);
 		Resource resource = new Resource(this, name, mediaType, data);
 		resourcesByName.put(name, resource);
+		if (deduplicateResources)
+			dedupCandidates.add(resource);
 		return resource;
 	}
 
@@ -613,7 +938,7 @@ public class Publication {
 	 *            resource data
 	 * @return new FontResource
 	 */
-	public FontResource createFontResource(String name, DataSource data) {
+	public synchronized FontResource createFontResource(String name, DataSource data) {
 		if (resourcesByName.get(name) != null)
 			throw new RuntimeException("Resource already exists: " + name);
 		FontResource resource = new FontResource(this, name, data);
@@ -628,7 +953,7 @@ public class Publication {
 	 *            resource to add; must be one of the existing OPS resources in
 	 *            this Publication
 	 */
-	public void addToSpine(Resource resource) {
+	public synchronized void addToSpine(Resource resource) {
 		spine.add(resource);
 	}
 
@@ -654,7 +979,7 @@ public class Publication {
 		return (Resource) resourcesByName.get(name);
 	}
 
-	String assignId(Resource res) {
+	synchronized String assignId(Resource res) {
 		if (res.id == null) {
 			res.id = makeId();
 			resourcesById.put(res.id, res);
@@ -662,7 +987,7 @@ public class Publication {
 		return res.id;
 	}
 
-	String makeId() {
+	synchronized String makeId() {
 		while (true) {
 			String id = "id" + (idCount++);
 			if (resourcesById.get(id) == null)
@@ -734,7 +1059,7 @@ public class Publication {
 		Iterator res = resources();
 		while (res.hasNext()) {
 			Object next = res.next();
-			if (next instanceof OPSResource) {
+			if (next instanceof OPSResource && !streamedResources.contains(next)) {
 				OPSResource ops = (OPSResource) next;
 				OPSDocument doc = ops.getDocument();
 				doc.addStyleResource(styleResource.getResourceRef());
@@ -811,6 +1136,8 @@ public class Publication {
 
 	/**
 	 * Serialize Publication into a container such as OCF container or folder.
+	 * Once the container is closed, temporary buffers holding resource data
+	 * are disposed, so a Publication can only be serialized once.
 	 * 
 	 * @param container
 	 *            container writing interface
@@ -818,18 +1145,51 @@ public class Publication {
 	 *             if I/O error occurs while writing
 	 */
 	public void serialize(ContainerWriter container) throws IOException {
+		try {
+			writeContainer(container);
+		} finally {
+			disposeBufferedSources();
+		}
+	}
+
+	private void disposeBufferedSources() {
+		for (int i = 0; i < bufferedSources.size(); i++)
+			((BufferedDataSource) bufferedSources.elementAt(i)).dispose();
+		bufferedSources.clear();
+	}
+
+	private void writeContainer(ContainerWriter container) throws IOException {
+		if (streamingContainer != null && container != streamingContainer)
+			throw new RuntimeException("streaming Publication must be serialized to its streaming container");
+		// finished chapters may reference duplicates already
+		if (deduplicateResources && streamingContainer == null)
+			deduplicateResources();
 		getPrimaryIdentifier(); // if no unique id, make one
 		NCXResource ncx = getTOC();
 		if (ncx != null)
 			ncx.prepareTOC();
 		Iterator spine = spine();
-		int playOrder = 0;
+		int playOrder = streamedPlayOrder;
 		while (spine.hasNext()) {
 			Object sp = spine.next();
-			if (sp instanceof OPSResource) {
-				playOrder = ((OPSResource) sp).getDocument().assignPlayOrder(playOrder);
+			if (sp instanceof OPSResource && !streamedResources.contains(sp)) {
+				OPSResource ops = (OPSResource) sp;
+				// only XRefs taken over on load can point into a document
+				// that is not loaded
+				if (ops.isDocumentLoaded() || ops.getResourceRef().hasUnresolvedXRefs())
+					playOrder = ops.getDocument().assignPlayOrder(playOrder);
 			}
 		}
+		if (streamingSubsetter != null) {
+			Iterator it = getOPSResources().iterator();
+			while (it.hasNext()) {
+				OPSResource ops = (OPSResource) it.next();
+				if (!streamedResources.contains(ops))
+					addStreamingFonts(ops.getDocument());
+			}
+			streamingSubsetter.addFonts(this);
+			streamingSubsetter = null;
+		}
 		Enumeration names = resourcesByName.keys();
 		boolean needEnc = false;
 		while (names.hasMoreElements()) {
@@ -838,8 +1198,8 @@ public class Publication {
 			if (res instanceof FontResource) {
 				needEnc = true;
 			}
-			OutputStream out = container.getOutputStream(name, res.canCompress());
-			res.serialize(out);
+			if (!streamedResources.contains(res))
+				res.serialize(container);
 		}
 		if (needEnc) {
 			XMLSerializer ser = new XMLSerializer(container.getOutputStream("META-INF/encryption.xml"));
@@ -900,26 +1260,57 @@ public class Publication {
 		container.close();
 	}
 
+	private Vector getOPSResources() {
+		Vector list = new Vector();
+		Iterator it = resources();
+		while (it.hasNext()) {
+			Object next = it.next();
+			if (next instanceof OPSResource && !streamedResources.contains(next))
+				list.add(next);
+		}
+		return list;
+	}
+
 	public void cascadeStyles() {
-		Enumeration names = resourcesByName.keys();
-		while (names.hasMoreElements()) {
-			String name = (String) names.nextElement();
-			Resource res = (Resource) resourcesByName.get(name);
-			if (res instanceof OPSResource) {
+		cascadeStyles(1);
+	}
+
+	/**
+	 * Cascade styles in all OPS documents, processing several documents at a
+	 * time.
+	 * 
+	 * @param threads
+	 *            number of threads to use
+	 */
+	public void cascadeStyles(int threads) {
+		ResourcePass pass = new ResourcePass() {
+			void process(Resource res) {
 				((OPSResource) res).getDocument().cascadeStyles();
 			}
-		}
+		};
+		pass.run(getOPSResources(), threads);
 	}
 
 	public void generateStyles(StyleResource styleResource) {
-		Enumeration names = resourcesByName.keys();
-		while (names.hasMoreElements()) {
-			String name = (String) names.nextElement();
-			Resource res = (Resource) resourcesByName.get(name);
-			if (res instanceof OPSResource) {
-				((OPSResource) res).getDocument().generateStyles(styleResource.getStylesheet());
+		generateStyles(styleResource, 1);
+	}
+
+	/**
+	 * Generate styles in all OPS documents, processing several documents at a
+	 * time. With more than one thread, generated class names may be numbered
+	 * differently from run to run.
+	 * 
+	 * @param threads
+	 *            number of threads to use
+	 */
+	public void generateStyles(StyleResource styleResource, int threads) {
+		final Stylesheet stylesheet = styleResource.getStylesheet();
+		ResourcePass pass = new ResourcePass() {
+			void process(Resource res) {
+				((OPSResource) res).getDocument().generateStyles(stylesheet);
 			}
-		}
+		};
+		pass.run(getOPSResources(), threads);
 	}
 
 	static class OCFHandler extends DefaultHandler {
@@ -939,15 +1330,16 @@ public class Publication {
 	}
 
 	private static String processOCF(InputStream ocfStream) throws Exception {
-		SAXParserFactory factory = SAXParserFactory.newInstance();
-		factory.setNamespaceAware(true);
-		SAXParser parser = factory.newSAXParser();
-		XMLReader reader = parser.getXMLReader();
+		XMLReader reader = XMLReaderPool.getReader();
 		OCFHandler handler = new OCFHandler();
-		reader.setContentHandler(handler);
-		reader.setEntityResolver(EPUBEntityResolver.instance);
-		InputSource source = new InputSource(ocfStream);
-		reader.parse(source);
+		try {
+			reader.setContentHandler(handler);
+			reader.setEntityResolver(EPUBEntityResolver.instance);
+			InputSource source = new InputSource(ocfStream);
+			reader.parse(source);
+		} finally {
+			XMLReaderPool.releaseReader(reader);
+		}
 		if (handler.opf == null)
 			throw new RuntimeException("No OPF file found");
 		return handler.opf;
@@ -957,26 +1349,32 @@ public class Publication {
 		DataSource data = containerSource.getDataSource(href);
 		if (data == null)
 			return null;
-		return createGenericResource(href, mediaType, data);
+		Resource resource = createGenericResource(href, mediaType, data);
+		// unparsed documents may refer to it by name
+		dedupCandidates.remove(resource);
+		return resource;
 	}
 
 	public Resource parseResource(Resource res) {
 		Resource r = parseResourceRaw(res);
-		if (r != null) {
-			resourcesByName.put(res.getName(), r);
-			int spineIndex = spine.indexOf(res);
-			if (spineIndex >= 0)
-				spine.set(spineIndex, r);
-			if (res == toc)
-				toc = r;
-			if (res.id != null) {
-				r.id = res.id;
-				resourcesById.put(res.id, r);
-			}
-		}
+		if (r != null)
+			registerParsedResource(res, r);
 		return r;
 	}
 
+	private synchronized void registerParsedResource(Resource res, Resource r) {
+		resourcesByName.put(res.getName(), r);
+		int spineIndex = spine.indexOf(res);
+		if (spineIndex >= 0)
+			spine.set(spineIndex, r);
+		if (res == toc)
+			toc = r;
+		if (res.id != null) {
+			r.id = res.id;
+			resourcesById.put(res.id, r);
+		}
+	}
+
 	private Resource parseResourceRaw(Resource res) {
 		if (res.getClass() != Resource.class)
 			return null;
@@ -989,7 +1387,10 @@ public class Publication {
 				if (mediaType.equals("text/html"))
 					mediaType = "application/xhtml+xml";
 				OPSResource resource = new OPSResource(this, href, mediaType);
-				resource.load(data);
+				if (loadedDocuments != null)
+					resource.source = data; // parsed on first access
+				else
+					resource.load(data);
 				return resource;
 			}
 			if (mediaType.equals("application/x-dtbncx+xml")) {
@@ -1000,7 +1401,10 @@ public class Publication {
 			}
 			if (mediaType.equals("text/css")) {
 				StyleResource resource = new StyleResource(this, href);
-				resource.load(data);
+				if (loadedDocuments != null)
+					resource.source = data; // parsed on first access
+				else
+					resource.load(data);
 				return resource;
 			}
 			if (mediaType.startsWith("image/"))
@@ -1018,7 +1422,7 @@ public class Publication {
 		return null;
 	}
 
-	public ResourceRef getResourceRef(String name) {
+	public synchronized ResourceRef getResourceRef(String name) {
 		ResourceRef ref = (ResourceRef) resourceRefsByName.get(name);
 		if (ref == null) {
 			ref = new ResourceRef(this, name);
@@ -1039,51 +1443,105 @@ public class Publication {
 	}
 
 	public void parseAll() {
+		parseAll(1);
+	}
+
+	/**
+	 * Parse all resources, several resources at a time.
+	 * 
+	 * @param threads
+	 *            number of threads to use
+	 */
+	public void parseAll(int threads) {
 		Vector resources = new Vector();
 		resources.addAll(resourcesByName.values());
-		Iterator list = resources.iterator();
-		while (list.hasNext()) {
-			Resource r = (Resource) list.next();
-			try {
-				parseResource(r);
-			} catch (Exception e) {
-				e.printStackTrace();
+		ResourcePass pass = new ResourcePass() {
+			void process(Resource r) {
+				try {
+					parseResource(r);
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
 			}
-		}
+		};
+		pass.run(resources, threads);
 	}
 
 	/**
 	 * Apply existing stylesheets, refactor all properties into new CSS classes,
 	 * remove all existing stylesheets and create a single one in place of them.
+	 * In streaming mode, chapters in the spine are written out as soon as they
+	 * are restyled, so that restyled documents do not accumulate in memory.
 	 */
 	public StyleResource refactorStyles() {
-		cascadeStyles();
+		return refactorStyles(1);
+	}
+
+	/**
+	 * Same as {@link #refactorStyles()}, but restyles several documents at a
+	 * time. Generated class names may be numbered differently from run to run.
+	 * 
+	 * @param threads
+	 *            number of threads to use
+	 */
+	public StyleResource refactorStyles(int threads) {
+		String name = makeUniqueResourceName((contentFolder == null ? "" : contentFolder + "/") + "common.css");
+		final StyleResource styleResource = createStyleResource(name);
+		final Stylesheet stylesheet = styleResource.getStylesheet();
+		// loading a document lazily may add inline stylesheet resources,
+		// so work on a copy of the resource list
+		ResourcePass pass = new ResourcePass() {
+			void process(Resource r) {
+				OPSDocument doc = ((OPSResource) r).getDocument();
+				// cascade right before restyling, while the old stylesheets
+				// are still in place
+				doc.cascadeStyles();
+				doc.removeAllStyleResources();
+				doc.setAssignStylesFlag();
+				doc.addStyleResource(styleResource.getResourceRef());
+				doc.generateStyles(stylesheet);
+			}
+		};
+		Vector documents = getOPSResources();
+		if (streamingContainer == null) {
+			pass.run(documents, threads);
+		} else {
+			// chapters are finished in spine order, a batch at a time
+			Vector chapters = new Vector();
+			for (int i = 0; i < spine.size(); i++) {
+				Object item = spine.elementAt(i);
+				if (documents.contains(item) && !streamedResources.contains(item))
+					chapters.add(item);
+			}
+			documents.removeAll(chapters);
+			pass.run(documents, threads);
+			int batch = Math.max(threads, 1);
+			for (int i = 0; i < chapters.size(); i += batch) {
+				Vector part = new Vector(chapters.subList(i, Math.min(i + batch, chapters.size())));
+				pass.run(part, threads);
+				for (int k = 0; k < part.size(); k++) {
+					try {
+						finishResource((Resource) part.elementAt(k));
+					} catch (IOException e) {
+						RuntimeException ex = new RuntimeException(e.toString());
+						ex.initCause(e);
+						throw ex;
+					}
+				}
+			}
+		}
 		HashSet resources = new HashSet();
 		Iterator list = resourcesByName.values().iterator();
 		while (list.hasNext()) {
 			Resource r = (Resource) list.next();
-			if (r instanceof StyleResource) {
+			if (r instanceof StyleResource && r != styleResource) {
 				resources.add(r);
 			}
 		}
-		String name = makeUniqueResourceName((contentFolder == null ? "" : contentFolder + "/") + "common.css");
-		StyleResource styleResource = createStyleResource(name);
 		list = resources.iterator();
 		while (list.hasNext()) {
 			removeResource((Resource) list.next());
 		}
-		list = resourcesByName.values().iterator();
-		while (list.hasNext()) {
-			Object next = list.next();
-			if (next instanceof OPSResource) {
-				OPSResource ops = (OPSResource) next;
-				OPSDocument doc = ops.getDocument();
-				doc.removeAllStyleResources();
-				doc.setAssignStylesFlag();
-				doc.addStyleResource(styleResource.getResourceRef());
-				doc.generateStyles(styleResource.getStylesheet());
-			}
-		}
 		return styleResource;
 	}
 
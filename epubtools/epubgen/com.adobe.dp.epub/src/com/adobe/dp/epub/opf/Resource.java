@@ -34,7 +34,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
+import com.adobe.dp.epub.io.BufferedDataSource;
+import com.adobe.dp.epub.io.ContainerWriter;
 import com.adobe.dp.epub.io.DataSource;
+import com.adobe.dp.epub.io.ZipEntryDataSource;
 
 /**
  * This class represents an arbitrary resource in a Publication. Typically one
@@ -57,6 +60,8 @@ public class Resource {
 		this.mediaType = type;
 		this.name = name;
 		this.source = source;
+		if (epub != null && source instanceof BufferedDataSource)
+			epub.bufferedSources.add(source);
 	}
 
 	/**
@@ -142,6 +147,36 @@ public class Resource {
 		out.close();
 	}
 
+	/**
+	 * Serialize this resource into the container. Resources that come
+	 * unchanged from the source zip container are copied as is, without
+	 * recompressing them; other unchanged resources are handed to the
+	 * container as DataSources.
+	 * 
+	 * @param container
+	 *            container to write to
+	 * @throws IOException
+	 *             if I/O error occurs while writing
+	 */
+	void serialize(ContainerWriter container) throws IOException {
+		if (isVerbatim()) {
+			if (source instanceof ZipEntryDataSource
+					&& container.writeRawEntry(name, (ZipEntryDataSource) source))
+				return;
+			container.writeEntry(name, mediaType, source, canCompress());
+			return;
+		}
+		serialize(container.getOutputStream(name, mediaType, canCompress()));
+	}
+
+	/**
+	 * Indicates if {@link #serialize(OutputStream)} writes the data of this
+	 * resource's DataSource without any changes.
+	 */
+	boolean isVerbatim() {
+		return source != null;
+	}
+
 	/**
 	 * Indicates if this resource can be compressed. Most resources can and
 	 * should be compressed when packaged into OCF container. However, some
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2009, Adobe Systems Incorporated
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * ·        Redistributions of source code must retain the above copyright 
+ *          notice, this list of conditions and the following disclaimer. 
+ *
+ * ·        Redistributions in binary form must reproduce the above copyright 
+ *		   notice, this list of conditions and the following disclaimer in the
+ *		   documentation and/or other materials provided with the distribution. 
+ *
+ * ·        Neither the name of Adobe Systems Incorporated nor the names of its 
+ *		   contributors may be used to endorse or promote products derived from
+ *		   this software without specific prior written permission. 
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR 
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+
+package com.adobe.dp.epub.opf;
+
+import java.util.Vector;
+
+/**
+ * Per-resource pass over a list of resources that can run on several threads.
+ * Each thread takes the next resource that is not processed yet. The first
+ * exception thrown by {@link #process(Resource)} stops the pass and is thrown
+ * from {@link #run(Vector, int)}.
+ */
+abstract class ResourcePass {
+
+	private Vector resources;
+
+	private int next;
+
+	private Throwable error;
+
+	abstract void process(Resource resource) throws Exception;
+
+	void run(Vector resources, int threads) {
+		this.resources = resources;
+		next = 0;
+		error = null;
+		if (threads > resources.size())
+			threads = resources.size();
+		if (threads <= 1) {
+			work();
+		} else {
+			Thread[] workers = new Thread[threads];
+			for (int i = 0; i < threads; i++) {
+				workers[i] = new Thread("ResourcePass-" + i) {
+					public void run() {
+						work();
+					}
+				};
+				workers[i].start();
+			}
+			for (int i = 0; i < threads; i++) {
+				try {
+					workers[i].join();
+				} catch (InterruptedException e) {
+					synchronized (this) {
+						if (error == null)
+							error = e;
+					}
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+		if (error != null) {
+			if (error instanceof RuntimeException)
+				throw (RuntimeException) error;
+			if (error instanceof Error)
+				throw (Error) error;
+			RuntimeException ex = new RuntimeException(error.toString());
+			ex.initCause(error);
+			throw ex;
+		}
+	}
+
+	void work() {
+		while (true) {
+			Resource resource;
+			synchronized (this) {
+				if (error != null || next >= resources.size())
+					return;
+				resource = (Resource) resources.elementAt(next++);
+			}
+			try {
+				process(resource);
+			} catch (Throwable e) {
+				synchronized (this) {
+					if (error == null)
+						error = e;
+				}
+			}
+		}
+	}
+}
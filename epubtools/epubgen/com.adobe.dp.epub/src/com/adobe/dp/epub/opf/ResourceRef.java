@@ -31,7 +31,9 @@ public class ResourceRef {
 		Resource r = getResource();
 		if( r == null )
 			return null;
-		if (r instanceof OPSResource) {
+		// do not parse or resurrect a document just to point into it; the
+		// XRef is taken over by the element once the document is loaded
+		if (r instanceof OPSResource && ((OPSResource) r).isDocumentResident()) {
 			OPSDocument ops = ((OPSResource) r).getDocument();
 			if (id == null)
 				return ops.getRootXRef();
@@ -40,7 +42,7 @@ public class ResourceRef {
 				return e.getSelfRef();
 		}
 		XRef ref;
-		if (unresolvedXRefMap == null || (ref = (XRef) unresolvedXRefMap.get(id)) == null) {
+		if (unresolvedXRefMap == null || (ref = (XRef) unresolvedXRefMap.get(id == null ? "" : id)) == null) {
 			if (unresolvedXRefMap == null)
 				unresolvedXRefMap = new Hashtable();
 			ref = new XRef(r, id);
@@ -49,6 +51,10 @@ public class ResourceRef {
 		return ref;
 	}
 
+	boolean hasUnresolvedXRefs() {
+		return unresolvedXRefMap != null && !unresolvedXRefMap.isEmpty();
+	}
+
 	public XRef takeOverUnresolvedXRef(String id) {
 		if (unresolvedXRefMap == null)
 			return null;
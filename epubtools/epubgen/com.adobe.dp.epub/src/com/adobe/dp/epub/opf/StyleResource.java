@@ -49,9 +49,19 @@ public class StyleResource extends Resource {
 		super(epub, name, "text/css", null);
 	}
 	
-	public Stylesheet getStylesheet() {
-		if( stylesheet == null )
-			stylesheet = new Stylesheet(this);
+	public synchronized Stylesheet getStylesheet() {
+		if( stylesheet == null ) {
+			if( source != null ) {
+				// parsed lazily
+				try {
+					load(source);
+				} catch (IOException e) {
+					e.printStackTrace();
+					stylesheet = new Stylesheet(this);
+				}
+			} else
+				stylesheet = new Stylesheet(this);
+		}
 		return stylesheet;
 	}
 	
@@ -66,10 +76,19 @@ public class StyleResource extends Resource {
 		parser.setCSSURLFactory(new EPUBCSSURLFactory(this));
 		CSSStylesheet css = parser.readStylesheet(data.getInputStream());
 		stylesheet = new Stylesheet(this, css);
+		source = data;
 	}
 	
-	public void setCSS(CSSStylesheet css) {
+	/**
+	 * Loaded stylesheet that was not modified is written out as it was read.
+	 */
+	boolean isVerbatim() {
+		return source != null && !epub.resourcesRenamed && (stylesheet == null || !stylesheet.isModified());
+	}
+	
+	public synchronized void setCSS(CSSStylesheet css) {
 		stylesheet = new Stylesheet(this, css);
+		stylesheet.markModified();
 	}
 	
 }
@@ -30,7 +30,6 @@
 
 package com.adobe.dp.epub.ops;
 
-import java.io.UnsupportedEncodingException;
 import java.util.Iterator;
 import java.util.Stack;
 import java.util.Vector;
@@ -62,6 +61,10 @@ abstract public class Element {
 
 	Vector children = new Vector();
 
+	Element parent;
+
+	int estimatedSize = -1;
+
 	XRef selfRef;
 	
 	String lang;
@@ -93,6 +96,7 @@ abstract public class Element {
 
 	public void setLang(String lang) {
 		this.lang = lang;
+		document.markModified();
 	}
 
 	public Object getCascadedProperty(String propName) {
@@ -126,10 +130,16 @@ abstract public class Element {
 
 	public void setClassName(String className) {
 		this.className = className;
+		invalidateSize();
+		document.markModified();
 	}
 
 	public void add(Object child) {
 		children.add(child);
+		if (child instanceof Element)
+			((Element) child).parent = this;
+		invalidateSize();
+		document.markModified();
 	}
 
 	public String getId() {
@@ -153,7 +163,9 @@ abstract public class Element {
 	public XRef getSelfRef() {
 		if (selfRef == null) {
 			document.assignId(this);
+			document.pinned = true;
 			selfRef = new XRef(document.resource, this);
+			invalidateSize();
 		}
 		return selfRef;
 	}
@@ -194,11 +206,38 @@ abstract public class Element {
 		return false;
 	}
 
+	/**
+	 * Number of bytes the string takes in UTF-8, computed without encoding it.
+	 */
 	private static int getUTF8Length(String s) {
-		try {
-			return s.getBytes("UTF-8").length;
-		} catch (UnsupportedEncodingException e) {
-			throw new Error("UTF-8 unsupported???");
+		int len = s.length();
+		int size = len;
+		for (int i = 0; i < len; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80)
+				continue;
+			if (c < 0x800)
+				size++;
+			else if (c >= 0xD800 && c < 0xDC00 && i + 1 < len && s.charAt(i + 1) >= 0xDC00 && s.charAt(i + 1) < 0xE000) {
+				// surrogate pair: 4 bytes for 2 chars
+				size += 2;
+				i++;
+			} else
+				size += 2;
+		}
+		return size;
+	}
+
+	/**
+	 * Drop cached size estimate of this element and all its ancestors. An
+	 * element with a valid estimate always has valid estimates in its
+	 * subtree, so we can stop at the first ancestor that is already invalid.
+	 */
+	final void invalidateSize() {
+		Element e = this;
+		while (e != null && e.estimatedSize >= 0) {
+			e.estimatedSize = -1;
+			e = e.parent;
 		}
 	}
 
@@ -228,13 +267,17 @@ abstract public class Element {
 		return false;
 	}
 
+	/**
+	 * Estimated serialized size of this element's subtree. The value is cached
+	 * and only recomputed for the parts of the tree that changed since.
+	 */
 	final int getEstimatedSize() {
+		if (estimatedSize >= 0)
+			return estimatedSize;
 		int size = getElementSize();
-		Iterator it = content();
-		if (!it.hasNext())
-			return size;
-		while (it.hasNext()) {
-			Object next = it.next();
+		int count = children.size();
+		for (int i = 0; i < count; i++) {
+			Object next = children.elementAt(i);
 			if (next instanceof Element)
 				size += ((Element) next).getEstimatedSize();
 			else if (next instanceof String) {
@@ -242,17 +285,22 @@ abstract public class Element {
 			}
 			size++;
 		}
+		estimatedSize = size;
 		return size;
 	}
 
 	void transferToDocument(OPSDocument newDoc) {
-		if (id != null)
-			document.idMap.remove(id);
-		document = newDoc;
-		if (id != null)
-			document.idMap.put(id, this);
-		if (selfRef != null) {
-			selfRef.targetResource = newDoc.resource.getResourceRef();
+		if (document != newDoc) {
+			document.markModified();
+			newDoc.markModified();
+			if (id != null)
+				document.idMap.remove(id);
+			document = newDoc;
+			if (id != null)
+				document.idMap.put(id, this);
+			if (selfRef != null) {
+				selfRef.targetResource = newDoc.resource.getResourceRef();
+			}
 		}
 		Iterator it = content();
 		while (it.hasNext()) {
@@ -262,47 +310,44 @@ abstract public class Element {
 		}
 	}
 
-	final Element peelElements(OPSDocument newDoc, int targetSize, boolean first) {
+	final Element peelElements(OPSDocument newDoc, int targetSize, boolean first, boolean transfer) {
 		SizeRemains sr = new SizeRemains();
 		sr.size = targetSize + 1000;
-		return peelElements(newDoc, sr, first);
+		return peelElements(newDoc, sr, first, transfer);
 	}
 
-	final Element peelElements(OPSDocument newDoc, SizeRemains remains, boolean first) {
+	final Element peelElements(OPSDocument newDoc, SizeRemains remains, boolean first, boolean transfer) {
 		int size = getElementSize();
 		int bonus = getPeelingBonus();
 		remains.size -= size;
 		if (!first && (forcePeel() || (bonus >= 0 && bonus > remains.size))) {
 			// System.out.println("Break for bonus " + bonus);
-			transferToDocument(newDoc);
+			if (transfer)
+				transferToDocument(newDoc);
 			return this;
 		}
 		Element result = null;
 		boolean canPeelChild = canPeelChild();
 		int i = 0;
-		while (i < children.size()) {
+		int count = children.size();
+		while (result == null && i < count) {
 			Object next = children.elementAt(i);
 			if (next instanceof Element) {
 				Element child = (Element) next;
-				if (result == null) {
-					if (canPeelChild) {
-						Element p = child.peelElements(newDoc, remains, i == 0);
-						if (p != null) {
-							result = cloneElementShallow(newDoc);
-							result.add(p);
-							if (p == child) {
-								children.remove(i);
-								continue;
-							}
+				if (canPeelChild) {
+					Element p = child.peelElements(newDoc, remains, i == 0, transfer);
+					if (p != null) {
+						result = cloneElementShallow(newDoc);
+						result.add(p);
+						if (p == child) {
+							children.remove(i);
+							invalidateSize();
+							count--;
+							continue;
 						}
-					} else {
-						remains.size -= child.getEstimatedSize();
 					}
 				} else {
-					children.remove(i);
-					child.transferToDocument(newDoc);
-					result.add(child);
-					continue;
+					remains.size -= child.getEstimatedSize();
 				}
 			} else if (next instanceof String) {
 				remains.size -= getUTF8Length((String) next);
@@ -310,6 +355,25 @@ abstract public class Element {
 			remains.size--;
 			i++;
 		}
+		if (result != null && i < count) {
+			// move remaining elements in one pass (text nodes stay in place);
+			// removing them one by one is quadratic for long chapters
+			int kept = i;
+			result.children.ensureCapacity(result.children.size() + count - i);
+			for (; i < count; i++) {
+				Object next = children.elementAt(i);
+				if (next instanceof Element) {
+					Element child = (Element) next;
+					if (transfer)
+						child.transferToDocument(newDoc);
+					result.add(child);
+				} else {
+					children.setElementAt(next, kept++);
+				}
+			}
+			children.setSize(kept);
+			invalidateSize();
+		}
 		return result;
 	}
 
@@ -391,6 +455,7 @@ abstract public class Element {
 	public void setDesiredCascadeResult(CascadeResult cascade) {
 		this.cascade = cascade;
 		this.assignStyle = true;
+		document.markModified();
 	}
 
 	public InlineRule getStyle() {
@@ -399,6 +464,7 @@ abstract public class Element {
 
 	public void setStyle(InlineRule style) {
 		this.style = style;
+		document.markModified();
 	}
 
 	public int assignPlayOrder(int playOrder) {
@@ -414,6 +480,19 @@ abstract public class Element {
 		return playOrder;
 	}
 
+	void detachXRefs() {
+		if (selfRef != null) {
+			selfRef.targetId = selfRef.getTargetId();
+			selfRef.targetElement = null;
+		}
+		Iterator it = content();
+		while (it.hasNext()) {
+			Object next = it.next();
+			if (next instanceof Element)
+				((Element) next).detachXRefs();
+		}
+	}
+
 	public void cascade(CascadeEngine engine) {
 		engine.pushElement(getNamespaceURI(), getElementName(), getAttributes());
 		cascade = engine.getCascadeResult();
@@ -428,6 +507,7 @@ abstract public class Element {
 
 	public void generateStyles(Stylesheet stylesheet) {
 		if (assignStyle) {
+			document.markModified();
 			if (cascade != null && !cascade.isEmpty())
 				className = stylesheet.makeClass(className, cascade);
 			else
@@ -444,6 +524,7 @@ abstract public class Element {
 	
 	public void setAssignStylesFlag() {
 		assignStyle = true;
+		document.markModified();
 		Iterator it = content();
 		while (it.hasNext()) {
 			Object next = it.next();
@@ -107,6 +107,7 @@ public class HTMLElement extends Element {
 
 	public void setForceChapterBreak(boolean fcb) {
 		forceChapterBreak = fcb;
+		document.markModified();
 	}
 
 	public String getNamespaceURI() {
@@ -193,6 +194,7 @@ public class HTMLElement extends Element {
 
 	public void setTitle(String title) {
 		this.title = title;
+		document.markModified();
 	}
 	
 	public String getDir() {
@@ -201,6 +203,7 @@ public class HTMLElement extends Element {
 
 	public void setDir(String dir) {
 		this.dir = dir;
+		document.markModified();
 	}
 
 	SMapImpl getAttributes() {
@@ -58,6 +58,7 @@ public class HyperlinkElement extends HTMLElement {
 	public void setExternalHRef(String href) {
 		xref = null;
 		this.href = href;
+		document.markModified();
 	}
 
 	public XRef getXRef() {
@@ -67,6 +68,7 @@ public class HyperlinkElement extends HTMLElement {
 	public void setXRef(XRef xref) {
 		href = null;
 		this.xref = xref;
+		document.markModified();
 	}	
 	
 	SMapImpl getAttributes() {
@@ -50,14 +50,17 @@ public class ImageElement extends HTMLElement {
 
 	public void setImageResource(ResourceRef imageResource) {
 		this.imageResource = imageResource;
+		document.markModified();
 	}
 
 	public void setImageResource(Resource imageResource) {
 		this.imageResource = imageResource.getResourceRef();
+		document.markModified();
 	}
 
 	public void setAltText(String alt) {
 		this.alt = alt;
+		document.markModified();
 	}
 
 	SMapImpl getAttributes() {
@@ -38,8 +38,6 @@ import java.util.Iterator;
 import java.util.Vector;
 
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
 
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
@@ -56,6 +54,7 @@ import com.adobe.dp.epub.opf.StyleResource;
 import com.adobe.dp.epub.otf.FontSubsetter;
 import com.adobe.dp.epub.style.Stylesheet;
 import com.adobe.dp.xml.util.SMapImpl;
+import com.adobe.dp.xml.util.XMLReaderPool;
 import com.adobe.dp.xml.util.XMLSerializer;
 
 public class OPSDocument {
@@ -72,6 +71,14 @@ public class OPSDocument {
 
 	int nextid = 1;
 
+	boolean modified;
+
+	/**
+	 * Set when the document can not be parsed again from its source without
+	 * losing state, e.g. because XRefs point to its elements.
+	 */
+	boolean pinned;
+
 	public static final String xhtmlns = "http://www.w3.org/1999/xhtml";
 
 	public static final String svgns = "http://www.w3.org/2000/svg";
@@ -88,6 +95,34 @@ public class OPSDocument {
 			body = new HTMLElement(this, "body");
 	}
 
+	/**
+	 * Indicates if this document was changed since it was loaded. Changes made
+	 * through the element and document methods are tracked; code that changes
+	 * objects returned by this document directly (such as inline style rules)
+	 * should call {@link #markModified()}.
+	 * 
+	 * @return true if the document has to be serialized again
+	 */
+	public boolean isModified() {
+		return modified;
+	}
+
+	public void markModified() {
+		if (!modified) {
+			modified = true;
+			// document may have been unloaded while caller held on to it
+			resource.reattachDocument(this);
+		}
+	}
+
+	/**
+	 * Indicates if this document can be dropped and parsed again from its
+	 * resource's data later.
+	 */
+	public boolean isDiscardable() {
+		return !modified && !pinned;
+	}
+
 	public int assignPlayOrder(int playOrder) {
 		XRef rootXRef = getRootXRef();
 		if (rootXRef.playOrderNeeded())
@@ -95,6 +130,19 @@ public class OPSDocument {
 		return body.assignPlayOrder(playOrder);
 	}
 
+	/**
+	 * Make XRefs pointing into this document refer to element ids rather than
+	 * elements, so that they do not keep the document in memory once it is
+	 * written and released.
+	 */
+	public void detachXRefs() {
+		body.detachXRefs();
+	}
+
+	public OPSResource getResource() {
+		return resource;
+	}
+
 	public Element getBody() {
 		return body;
 	}
@@ -103,7 +151,8 @@ public class OPSDocument {
 		return (Element) idMap.get(id);
 	}
 
-	void setElementId(Element e, String id) {
+	synchronized void setElementId(Element e, String id) {
+		markModified();
 		if (e.id != null)
 			idMap.remove(e.id);
 		Element old = (Element) idMap.put(id, e);
@@ -111,6 +160,7 @@ public class OPSDocument {
 		XRef xref = ref.takeOverUnresolvedXRef(id);
 		if (xref != null) {
 			xref.targetElement = e;
+			pinned = true;
 		}
 		e.id = id;
 		if (old != null) {
@@ -129,12 +179,13 @@ public class OPSDocument {
 		}
 	}
 
-	String assignId(Element e) {
+	synchronized String assignId(Element e) {
 		String id = e.id;
 		if (id == null) {
 			id = newId();
 			e.id = id;
 			idMap.put(id, e);
+			markModified();
 		}
 		return id;
 	}
@@ -147,12 +198,14 @@ public class OPSDocument {
 		if (style == null)
 			throw new IllegalArgumentException("null style");
 		styleResources.add(style);
+		markModified();
 	}
 
 	public void addStyleResource(Resource style) {
 		if (style == null)
 			throw new IllegalArgumentException("null style");
 		styleResources.add(style.getResourceRef());
+		markModified();
 	}
 
 	public XRef getRootXRef() {
@@ -160,6 +213,7 @@ public class OPSDocument {
 			rootXRef = resource.getResourceRef().takeOverUnresolvedXRef(null);
 			if (rootXRef == null)
 				rootXRef = new XRef(resource, (Element) null);
+			pinned = true;
 		}
 		return rootXRef;
 	}
@@ -216,15 +270,44 @@ public class OPSDocument {
 	 * @return true if something was peeled
 	 */
 	public boolean peelOffBack(OPSDocument newDoc, int targetSize) {
+		return peelOffBack(newDoc, targetSize, true);
+	}
+
+	/**
+	 * Split the document. If transfer is false, peeled elements are moved to
+	 * newDoc's tree, but still belong to their old document until
+	 * {@link #adoptElements()} is called on newDoc. This way a large document
+	 * can be split into many pieces by repeatedly peeling off the back without
+	 * reassigning the remaining content on every step.
+	 * 
+	 * @param newDoc
+	 *            document where peeled content should be placed
+	 * @param targetSize
+	 *            target size of this document after split
+	 * @param transfer
+	 *            if peeled elements should be reassigned to newDoc right away
+	 * @return true if something was peeled
+	 */
+	public boolean peelOffBack(OPSDocument newDoc, int targetSize, boolean transfer) {
 		newDoc.styleResources.addAll(styleResources);
-		Element newBody = body.peelElements(newDoc, targetSize, true);
+		newDoc.markModified();
+		Element newBody = body.peelElements(newDoc, targetSize, true, transfer);
 		if (newBody == null)
 			return false;
 		newDoc.body = newBody;
 		return true;
 	}
 
+	/**
+	 * Make all elements in this document's tree belong to this document. Needs
+	 * to be called after peeling content into this document without transfer.
+	 */
+	public void adoptElements() {
+		body.transferToDocument(this);
+	}
+
 	public void cascadeStyles() {
+		pinned = true; // cascade results would be lost on reload
 		CascadeEngine engine = new CascadeEngine();
 		Iterator s = styleResources();
 		while (s.hasNext()) {
@@ -307,15 +390,18 @@ public class OPSDocument {
 	public void load(DataSource data) throws IOException {
 		OPSDocumentBuilder builder = new OPSDocumentBuilder(this);
 		InputStream in = data.getInputStream();
-		SAXParserFactory factory = SAXParserFactory.newInstance();
-		factory.setNamespaceAware(true);
 		try {
-			SAXParser parser = factory.newSAXParser();
-			XMLReader reader = parser.getXMLReader();
-			reader.setContentHandler(builder);
-			reader.setEntityResolver(EPUBEntityResolver.instance);
-			InputSource source = new InputSource(in);
-			reader.parse(source);
+			XMLReader reader = XMLReaderPool.getReader();
+			try {
+				reader.setContentHandler(builder);
+				reader.setEntityResolver(resource.getPublication().isXHTMLEntitiesOnly() ? EPUBEntityResolver.entitiesOnlyInstance
+						: EPUBEntityResolver.instance);
+				InputSource source = new InputSource(in);
+				reader.parse(source);
+			} finally {
+				XMLReaderPool.releaseReader(reader);
+			}
+			modified = false;
 		} catch (ParserConfigurationException e) {
 			e.printStackTrace();
 			throw new RuntimeException(e.toString());
@@ -332,5 +418,6 @@ public class OPSDocument {
 
 	public void removeAllStyleResources() {
 		styleResources.clear();
+		markModified();
 	}
 }
@@ -244,6 +244,7 @@ class OPSDocumentBuilder extends DefaultHandler {
 					StyleResource sr = epub.createStyleResource(inlineName);
 					sr.setCSS(css);
 					document.addStyleResource(sr.getResourceRef());
+					document.pinned = true; // loading it again would clash
 				} catch (IOException e) {
 					e.printStackTrace();
 				}
@@ -54,10 +54,12 @@ public class SVGElement extends Element {
 
 	public void setAttribute(String name, Object value) {
 		attrs.put(null, name, value);
+		document.markModified();
 	}
 
 	public void setAttribute(String ns, String name, Object value) {
 		attrs.put(ns, name, value);
+		document.markModified();
 	}
 
 	SMapImpl getAttributes() {
@@ -48,10 +48,12 @@ public class SVGImageElement extends SVGElement {
 
 	public void setImageResource(ResourceRef imageResource) {
 		this.imageResource = imageResource;
+		document.markModified();
 	}
 
 	public void setImageResource(Resource imageResource) {
 		this.imageResource = imageResource.getResourceRef();
+		document.markModified();
 	}
 
 	SMapImpl getAttributes() {
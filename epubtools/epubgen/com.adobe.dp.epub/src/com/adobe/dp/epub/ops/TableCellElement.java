@@ -64,6 +64,7 @@ public class TableCellElement extends HTMLElement {
 
 	public void setRowSpan(int rowSpan) {
 		this.rowSpan = rowSpan;
+		document.markModified();
 	}
 
 	public int getColSpan() {
@@ -72,6 +73,7 @@ public class TableCellElement extends HTMLElement {
 
 	public void setColSpan(int colSpan) {
 		this.colSpan = colSpan;
+		document.markModified();
 	}
 
 	public String getAlign() {
@@ -80,6 +82,7 @@ public class TableCellElement extends HTMLElement {
 
 	public void setAlign(String align) {
 		this.align = align;
+		document.markModified();
 	}
 
 }
@@ -91,7 +91,9 @@ public class XRef {
 	}
 
 	public void requestPlayOrder() {
-		this.playOrder = -1;
+		// keep play order assigned when a chapter was written in streaming mode
+		if (this.playOrder == 0)
+			this.playOrder = -1;
 	}
 
 	public boolean playOrderNeeded() {
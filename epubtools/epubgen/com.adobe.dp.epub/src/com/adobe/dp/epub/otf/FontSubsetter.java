@@ -52,6 +52,7 @@ import com.adobe.dp.epub.opf.FontResource;
 import com.adobe.dp.epub.opf.Publication;
 import com.adobe.dp.epub.opf.StyleResource;
 import com.adobe.dp.epub.ops.Element;
+import com.adobe.dp.otf.FontCache;
 import com.adobe.dp.otf.FontInputStream;
 import com.adobe.dp.otf.FontLocator;
 import com.adobe.dp.otf.FontProperties;
@@ -280,7 +281,7 @@ public class FontSubsetter implements FontEmbeddingReport {
 							FontProperties prop = new FontProperties(entry.familyName, entry.weight, entry.style);
 							FontInputStream stream = fontLocator.locateFont(prop);
 							if (stream != null) {
-								OpenTypeFont font = new OpenTypeFont(stream);
+								OpenTypeFont font = FontCache.getInstance().getFont(stream);
 								if (font.canEmbedForReading() && font.canSubset()) {
 									subsetter = new SubsetterEntry();
 									subsetter.font = font;
@@ -317,6 +318,14 @@ public class FontSubsetter implements FontEmbeddingReport {
 		if (currentEntry != null && currentEntry.subsetterList != null) {
 			long t0 = System.currentTimeMillis();
 			int subsetterListLen = currentEntry.subsetterList.length;
+			if (subsetterListLen == 1) {
+				// no fallback fonts, whole string goes to the same font
+				SubsetterEntry subsetter = currentEntry.subsetterList[0];
+				if (subsetter.font != null && subsetter.font.play(text))
+					subsetter.used = true;
+				totalPlay += System.currentTimeMillis() - t0;
+				return;
+			}
 			int stringLength = text.length();
 			for (int i = 0; i < stringLength; i++) {
 				char c = text.charAt(i);
@@ -55,6 +55,8 @@ public class Stylesheet {
 
 	CSSStylesheet css;
 
+	boolean modified;
+
 	public Stylesheet(StyleResource owner) {
 		this.owner = owner;
 		css = new CSSStylesheet();
@@ -77,22 +79,26 @@ public class Stylesheet {
 		// TODO: populate classByProps
 	}
 
-	public Selector getSimpleSelector(String elementName, String className) {
+	public synchronized Selector getSimpleSelector(String elementName, String className) {
 		return css.getSimpleSelector(elementName, className);
 	}
 
-	public SelectorRule getRuleForSelector(Selector selector, boolean create) {
-		return css.getRuleForSelector(selector, create);
+	public synchronized SelectorRule getRuleForSelector(Selector selector, boolean create) {
+		SelectorRule rule = css.getRuleForSelector(selector, create);
+		if (rule != null)
+			modified = true; // caller may change it
+		return rule;
 	}
 
-	public FontFaceRule createFontFace(FontResource fontResource) {
+	public synchronized FontFaceRule createFontFace(FontResource fontResource) {
+		modified = true;
 		FontFaceRule fontFace = new FontFaceRule();
 		css.add(fontFace);
 		fontFace.set("src", new ResourceURL(owner, fontResource.getResourceRef()));
 		return fontFace;
 	}
 
-	public String makeClass(String className, CascadeResult props) {
+	public synchronized String makeClass(String className, CascadeResult props) {
 		String cls = (String) classByProps.get(props);
 		if (cls != null)
 			return cls;
@@ -109,6 +115,7 @@ public class Stylesheet {
 			cls = className + (count++);
 		}
 		classByProps.put(props, cls);
+		modified = true;
 		SelectorRule rule = css.getRuleForSelector(selector, true);
 		InlineRule p = props.getProperties().getPropertySet();
 		Iterator ps = p.properties();
@@ -120,17 +127,31 @@ public class Stylesheet {
 		return cls;
 	}
 
+	/**
+	 * Indicates if this stylesheet was changed since it was loaded. Code that
+	 * changes the CSSStylesheet returned by {@link #getCSS()} directly should
+	 * call {@link #markModified()}.
+	 */
+	public boolean isModified() {
+		return modified;
+	}
+
+	public void markModified() {
+		modified = true;
+	}
+
 	public CSSStylesheet getCSS() {
 		return css;
 	}
 
-	public void serialize(PrintWriter pout) {
+	public synchronized void serialize(PrintWriter pout) {
 		css.serialize(pout);
 	}
 
-	public void addDirectStyles(InputStream in) throws IOException {
+	public synchronized void addDirectStyles(InputStream in) throws IOException {
 		CSSParser parser = new CSSParser();
 		parser.readStylesheet(in, css);
 		initExisting();
+		modified = true;
 	}
 }
@@ -6,22 +6,44 @@ import java.io.FileOutputStream;
 import com.adobe.dp.epub.io.OCFContainerWriter;
 import com.adobe.dp.epub.opf.Publication;
 
+/**
+ * Usage: EPUBFilter [-threads N] in.epub out.epub
+ * <p>
+ * Styles are refactored on a single thread by default, so that generated
+ * class names are the same from run to run. With -threads, chapters are parsed
+ * and their styles refactored on N threads.
+ * <p>
+ * Chapters are parsed only when they are restyled and written out right after
+ * that, so memory use does not grow with the size of the book.
+ */
 public class EPUBFilter {
 
+	// unmodified documents kept parsed per thread
+	private static final int LOADED_DOCUMENTS = 4;
+
 	public static void main(String[] args) {
 		try {
-			File file = new File(args[0]);
-			Publication epub = new Publication(file);
-			epub.parseAll();
-			epub.cascadeStyles();
+			int threads = 1;
+			int arg = 0;
+			if (args[arg].equals("-threads")) {
+				threads = Integer.parseInt(args[arg + 1]);
+				arg += 2;
+			}
+			File file = new File(args[arg]);
+			Publication epub = new Publication(file, threads > 1);
+			epub.setLazyLoading(LOADED_DOCUMENTS * threads);
+			epub.parseAll(threads);
 			System.out.println("Loaded \"" + epub.getDCMetadata("title") + "\"");
+			FileOutputStream out = new FileOutputStream(args[arg + 1]);
+			OCFContainerWriter container = new OCFContainerWriter(out, "application/epub+zip", OCFContainerWriter
+					.getDefaultCompressionThreads());
+			epub.startStreaming(container);
 			long start = System.currentTimeMillis();
-			epub.refactorStyles();
+			epub.refactorStyles(threads);
 			long end = System.currentTimeMillis();
 			System.out.println( "Refactored styles in " + (end - start) + "ms");
 			//epub.addFonts();
-			FileOutputStream out = new FileOutputStream(args[1]);
-			epub.serialize(new OCFContainerWriter(out));
+			epub.serialize(container);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
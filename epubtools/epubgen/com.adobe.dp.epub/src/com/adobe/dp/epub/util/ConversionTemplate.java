@@ -50,6 +50,7 @@ import com.adobe.dp.css.FontFaceRule;
 import com.adobe.dp.epub.style.Stylesheet;
 import com.adobe.dp.otf.ByteArrayFontInputStream;
 import com.adobe.dp.otf.FileFontInputStream;
+import com.adobe.dp.otf.FontIndex;
 import com.adobe.dp.otf.FontInputStream;
 import com.adobe.dp.otf.FontLocator;
 import com.adobe.dp.otf.FontProperties;
@@ -177,6 +178,21 @@ public class ConversionTemplate {
 			}
 		}
 
+		if (zip == null) {
+			// plain files, their properties can come from the font index
+			String[] fontNames = (String[]) fonts.toArray(new String[fonts.size()]);
+			File[] fontFiles = new File[fontNames.length];
+			for (int i = 0; i < fontNames.length; i++)
+				fontFiles[i] = new File(fontNames[i]);
+			Hashtable props = FontIndex.getDefaultIndex().getFontProperties(fontFiles);
+			for (int i = 0; i < fontNames.length; i++) {
+				FontProperties key = (FontProperties) props.get(fontFiles[i].getAbsolutePath());
+				if (key != null)
+					fontMap.put(key, fontNames[i]);
+			}
+			fonts.clear();
+		}
+
 		Iterator nakedFonts = fonts.iterator();
 		while (nakedFonts.hasNext()) {
 			try {
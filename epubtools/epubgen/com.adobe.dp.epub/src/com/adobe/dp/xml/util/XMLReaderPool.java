@@ -0,0 +1,126 @@
+/*******************************************************************************
+* Copyright (c) 2009, Adobe Systems Incorporated
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without 
+* modification, are permitted provided that the following conditions are met:
+*
+* ·        Redistributions of source code must retain the above copyright 
+*          notice, this list of conditions and the following disclaimer. 
+*
+* ·        Redistributions in binary form must reproduce the above copyright 
+*		   notice, this list of conditions and the following disclaimer in the
+*		   documentation and/or other materials provided with the distribution. 
+*
+* ·        Neither the name of Adobe Systems Incorporated nor the names of its 
+*		   contributors may be used to endorse or promote products derived from
+*		   this software without specific prior written permission. 
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR 
+* ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+* (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+* OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+* THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+* (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+* SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*******************************************************************************/
+
+package com.adobe.dp.xml.util;
+
+import java.util.Vector;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Shared pool of namespace-aware XMLReaders. Looking up SAXParserFactory and
+ * creating a parser costs more than parsing a small file, so readers are
+ * reused: get one with {@link #getReader()} and give it back with
+ * {@link #releaseReader(XMLReader)} when parsing is done. Pool is safe to use
+ * from several threads.
+ */
+public class XMLReaderPool {
+
+	private static SAXParserFactory factory;
+
+	private static Vector idle = new Vector();
+
+	private static int maxIdleReaders = 8;
+
+	private static int reuseCount;
+
+	private static int missCount;
+
+	private static final DefaultHandler nullHandler = new DefaultHandler();
+
+	/**
+	 * Get a reader from the pool or create a new one if the pool is empty. The
+	 * caller has to set content handler, entity resolver and other handlers it
+	 * needs.
+	 */
+	public static XMLReader getReader() throws ParserConfigurationException, SAXException {
+		SAXParserFactory f;
+		synchronized (XMLReaderPool.class) {
+			if (!idle.isEmpty()) {
+				reuseCount++;
+				return (XMLReader) idle.remove(idle.size() - 1);
+			}
+			missCount++;
+			if (factory == null) {
+				factory = SAXParserFactory.newInstance();
+				factory.setNamespaceAware(true);
+			}
+			f = factory;
+		}
+		synchronized (f) {
+			return f.newSAXParser().getXMLReader();
+		}
+	}
+
+	/**
+	 * Return the reader to the pool. Reader must not be used by the caller
+	 * after that.
+	 */
+	public static void releaseReader(XMLReader reader) {
+		// drop references to the caller's objects
+		reader.setContentHandler(nullHandler);
+		reader.setEntityResolver(nullHandler);
+		reader.setErrorHandler(nullHandler);
+		reader.setDTDHandler(nullHandler);
+		synchronized (XMLReaderPool.class) {
+			if (idle.size() < maxIdleReaders)
+				idle.add(reader);
+		}
+	}
+
+	/**
+	 * Set how many unused readers can be kept in the pool; 0 turns pooling
+	 * off.
+	 */
+	public static synchronized void setMaxIdleReaders(int max) {
+		maxIdleReaders = max;
+		while (idle.size() > max)
+			idle.remove(idle.size() - 1);
+	}
+
+	/**
+	 * Number of times a pooled reader was handed out
+	 */
+	public static synchronized int getReuseCount() {
+		return reuseCount;
+	}
+
+	/**
+	 * Number of times a new reader had to be created
+	 */
+	public static synchronized int getMissCount() {
+		return missCount;
+	}
+}
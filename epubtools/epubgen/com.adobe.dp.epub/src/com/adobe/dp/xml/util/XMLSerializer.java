@@ -30,10 +30,11 @@
 
 package com.adobe.dp.xml.util;
 
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -47,7 +48,20 @@ public class XMLSerializer implements SDocumentHandler {
 
 	private boolean forgiving;
 
-	private PrintWriter out;
+	/**
+	 * Writer for encodings other than UTF-8; UTF-8 is encoded directly into
+	 * outStream
+	 */
+	private Writer writer;
+
+	/**
+	 * Output is escaped into this buffer and encoded when it is full
+	 */
+	private char[] buffer = new char[8192];
+
+	private int length;
+
+	private byte[] bytes;
 
 	private StringBuffer prologue;
 
@@ -138,41 +152,165 @@ public class XMLSerializer implements SDocumentHandler {
 
 	private void closeTagIfNeeded() {
 		if (closeTag) {
-			out.print(">");
+			print('>');
 			//newLine();
 			closeTag = false;
 		}
 	}
 
-	private String escapeAttribute(String value) {		
-		value = StringUtil.replace(value, "&", "&amp;");
-		value = StringUtil.replace(value, "<", "&lt;");
-		value = StringUtil.replace(value, ">", "&gt;");
-		value = StringUtil.replace(value, "\"", "&quot;");
-		return value;
+	private static String getEntity(char c, boolean attribute) {
+		switch (c) {
+		case '&':
+			return "&amp;";
+		case '<':
+			return "&lt;";
+		case '>':
+			return "&gt;";
+		case '"':
+			return attribute ? "&quot;" : null;
+		default:
+			return null;
+		}
+	}
+
+	private String escapeAttribute(String value) {
+		StringBuffer sb = null;
+		int len = value.length();
+		for (int i = 0; i < len; i++) {
+			char c = value.charAt(i);
+			String ent = getEntity(c, true);
+			if (ent != null) {
+				if (sb == null) {
+					sb = new StringBuffer(len + 16);
+					sb.append(value.substring(0, i));
+				}
+				sb.append(ent);
+			} else if (sb != null) {
+				sb.append(c);
+			}
+		}
+		return sb == null ? value : sb.toString();
+	}
+
+	/**
+	 * Encode buffered chars and pass them on. A trailing high surrogate is
+	 * kept in the buffer until its pair arrives, unless this is the end of
+	 * output.
+	 */
+	private void flushBuffer(boolean last) {
+		try {
+			if (writer != null) {
+				writer.write(buffer, 0, length);
+				length = 0;
+				return;
+			}
+			if (bytes == null)
+				bytes = new byte[3 * buffer.length];
+			byte[] b = bytes;
+			int count = 0;
+			int i = 0;
+			for (; i < length; i++) {
+				int c = buffer[i];
+				if (c < 0x80) {
+					b[count++] = (byte) c;
+				} else if (c < 0x800) {
+					b[count++] = (byte) (0xC0 | (c >> 6));
+					b[count++] = (byte) (0x80 | (c & 0x3F));
+				} else if (c < 0xD800 || c > 0xDFFF) {
+					b[count++] = (byte) (0xE0 | (c >> 12));
+					b[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+					b[count++] = (byte) (0x80 | (c & 0x3F));
+				} else if (c <= 0xDBFF && i + 1 < length && buffer[i + 1] >= 0xDC00 && buffer[i + 1] <= 0xDFFF) {
+					c = 0x10000 + ((c - 0xD800) << 10) + (buffer[++i] - 0xDC00);
+					b[count++] = (byte) (0xF0 | (c >> 18));
+					b[count++] = (byte) (0x80 | ((c >> 12) & 0x3F));
+					b[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+					b[count++] = (byte) (0x80 | (c & 0x3F));
+				} else if (c <= 0xDBFF && i + 1 == length && !last) {
+					break;
+				} else {
+					b[count++] = (byte) '?'; // unpaired surrogate
+				}
+			}
+			outStream.write(b, 0, count);
+			if (i < length)
+				buffer[0] = buffer[i];
+			length = length - i;
+		} catch (IOException e) {
+			throw new RuntimeException("output error: " + e.getMessage(), e);
+		}
+	}
+
+	private void print(char c) {
+		if (length == buffer.length)
+			flushBuffer(false);
+		buffer[length++] = c;
+	}
+
+	private void print(String str) {
+		int offset = 0;
+		int len = str.length();
+		while (len > 0) {
+			if (length == buffer.length)
+				flushBuffer(false);
+			int n = Math.min(len, buffer.length - length);
+			str.getChars(offset, offset + n, buffer, length);
+			length += n;
+			offset += n;
+			len -= n;
+		}
+	}
+
+	private void write(char[] text, int offset, int len) {
+		while (len > 0) {
+			if (length == buffer.length)
+				flushBuffer(false);
+			int n = Math.min(len, buffer.length - length);
+			System.arraycopy(text, offset, buffer, length, n);
+			length += n;
+			offset += n;
+			len -= n;
+		}
+	}
+
+	private void printEscaped(String value, boolean attribute) {
+		int len = value.length();
+		for (int i = 0; i < len; i++) {
+			char c = value.charAt(i);
+			String ent = getEntity(c, attribute);
+			if (ent != null) {
+				print(ent);
+			} else {
+				if (length == buffer.length)
+					flushBuffer(false);
+				buffer[length++] = c;
+			}
+		}
 	}
 
 	public void startDocument(String version, String encoding) {
 		if (encoding == null)
 			encoding = "utf-8";
-		try {
-			out = new PrintWriter(new OutputStreamWriter(outStream, encoding));
-		} catch (UnsupportedEncodingException e) {
-			throw new IllegalArgumentException("unsupported encoding: '" + encoding + "'");
+		if (!encoding.equalsIgnoreCase("utf-8") && !encoding.equalsIgnoreCase("utf8")) {
+			try {
+				writer = new OutputStreamWriter(outStream, encoding);
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalArgumentException("unsupported encoding: '" + encoding + "'");
+			}
 		}
-		out.print("<?xml version=\"");
-		out.print(version);
-		out.print("\" encoding=\"");
-		out.print(encoding);
-		out.println("\"?>");
+		print("<?xml version=\"");
+		print(version);
+		print("\" encoding=\"");
+		print(encoding);
+		print("\"?>\n");
 	}
 
 	public void processingInstruction(String name, String value) {
-		out.print("<?");
-		out.print(name);
-		out.print(" ");
-		out.print(value);
-		out.println("?>");
+		print("<?");
+		print(name);
+		print(' ');
+		print(value);
+		print("?>\n");
 	}
 
 	public void endDocument() {
@@ -187,7 +325,15 @@ public class XMLSerializer implements SDocumentHandler {
 			}
 		}
 		closeTagIfNeeded();
-		out.close();
+		flushBuffer(true);
+		try {
+			if (writer != null)
+				writer.close();
+			else
+				outStream.close();
+		} catch (IOException e) {
+			throw new RuntimeException("output error: " + e.getMessage(), e);
+		}
 	}
 
 	public void setDoctype(String doctype, String publicId, String systemId) {
@@ -235,13 +381,14 @@ public class XMLSerializer implements SDocumentHandler {
 				prologue.append("]");
 			}
 			prologue.append(">");
-			out.println(prologue);
+			print(prologue.toString());
+			print('\n');
 			//newLine();
 		}
 		closeTagIfNeeded();
 		OpenElement e = new OpenElement(namespace, name);
 		openElements.push(e);
-		out.print("<");
+		print('<');
 		String newDefaultNS = null;
 		if (!namespace.equals(defaultNamespace)) {
 			if (makeDefaultNamespace) {
@@ -250,32 +397,31 @@ public class XMLSerializer implements SDocumentHandler {
 				newDefaultNS = namespace;
 			} else {
 				e.prefix = getPrefix(namespace);
-				out.print(e.prefix);
-				out.print(":");
+				print(e.prefix);
+				print(':');
 			}
 		}
-		out.print(name);
+		print(name);
 		if (newDefaultNS != null) {
-			out.print(" xmlns=\"");
-			out.print(escapeAttribute(newDefaultNS));
-			out.print("\"");
+			print(" xmlns=\"");
+			printEscaped(newDefaultNS, true);
+			print('"');
 		}
 		if (attributes != null) {
 			SMapIterator iterator = attributes.iterator();
 			while (iterator.hasItem()) {
-				out.print(" ");
+				print(' ');
 				String attributeNamespace = iterator.getNamespace();
 				if (attributeNamespace != null) {
 					String attributePrefix = getPrefix(attributeNamespace);
-					out.print(attributePrefix);
-					out.print(":");
+					print(attributePrefix);
+					print(':');
 				}
 				String attributeName = iterator.getName();
-				out.print(attributeName);
-				out.print("=\"");
-				String value = escapeAttribute(iterator.getValue().toString());
-				out.print(value);
-				out.print("\"");
+				print(attributeName);
+				print("=\"");
+				printEscaped(iterator.getValue().toString(), true);
+				print('"');
 				iterator.nextItem();
 			}
 		}
@@ -287,12 +433,12 @@ public class XMLSerializer implements SDocumentHandler {
 				prefixes = e.localNamespaces.iterator();
 			while (prefixes.hasNext()) {
 				String nsPrefix = (String) prefixes.next();
-				out.print(" xmlns:");
-				out.print(nsPrefix);
-				out.print("=\"");
+				print(" xmlns:");
+				print(nsPrefix);
+				print("=\"");
 				String ns = (String) prefixMap.get(nsPrefix);
-				out.print(escapeAttribute(ns));
-				out.print("\"");
+				printEscaped(ns, true);
+				print('"');
 			}
 		}
 		closeTag = true;
@@ -330,16 +476,16 @@ public class XMLSerializer implements SDocumentHandler {
 		}
 		openElements.pop();
 		if (closeTag) {
-			out.print("/>");
+			print("/>");
 			closeTag = false;
 		} else {
-			out.print("</");
+			print("</");
 			if (e.prefix != null) {
-				out.print(e.prefix);
-				out.print(":");
+				print(e.prefix);
+				print(':');
 			}
-			out.print(e.name);
-			out.print(">");
+			print(e.name);
+			print('>');
 		}
 		//newLine();
 		if (e.savedDefaultNamespace != null)
@@ -356,9 +502,9 @@ public class XMLSerializer implements SDocumentHandler {
 
 	public void entityReference(String entity) {
 		closeTagIfNeeded();
-		out.print("&");
-		out.print(entity);
-		out.print(";");
+		print('&');
+		print(entity);
+		print(';');
 	}
 
 	public void newLine() {
@@ -368,28 +514,16 @@ public class XMLSerializer implements SDocumentHandler {
 	public void text(char[] text, int offset, int len) {
 		closeTagIfNeeded();
 		int end = offset + len;
-		String ent = null;
 		for (int i = offset; i < end; i++) {
-			char c = text[i];
-			switch (c) {
-			case '&':
-				ent = "&amp;";
-				break;
-			case '<':
-				ent = "&lt;";
-				break;
-			case '>':
-				ent = "&gt;";
-				break;
-			default:
+			String ent = getEntity(text[i], false);
+			if (ent == null)
 				continue;
-			}
 			if (i > offset)
-				out.write(text, offset, i - offset);
+				write(text, offset, i - offset);
 			offset = i + 1;
-			out.print(ent);
+			print(ent);
 		}
 		if (end > offset)
-			out.write(text, offset, end - offset);
+			write(text, offset, end - offset);
 	}
 }
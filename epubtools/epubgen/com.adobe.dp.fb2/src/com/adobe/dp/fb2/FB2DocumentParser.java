@@ -39,8 +39,6 @@ import java.util.Vector;
 import java.util.zip.ZipInputStream;
 
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
@@ -56,6 +54,7 @@ import com.adobe.dp.css.InlineRule;
 import com.adobe.dp.epub.util.Base64;
 import com.adobe.dp.xml.util.SMapAttributesAdapter;
 import com.adobe.dp.xml.util.SMapImpl;
+import com.adobe.dp.xml.util.XMLReaderPool;
 
 public class FB2DocumentParser {
 
@@ -104,16 +103,17 @@ public class FB2DocumentParser {
 			in.skip(3);
 		}
 
-		SAXParserFactory factory = SAXParserFactory.newInstance();
-		factory.setNamespaceAware(true);
 		try {
-			SAXParser parser = factory.newSAXParser();
-			XMLReader reader = parser.getXMLReader();
+			XMLReader reader = XMLReaderPool.getReader();
 			XMLHandler handler = new XMLHandler();
-			reader.setContentHandler(handler);
-			reader.setEntityResolver(handler);
-			InputSource source = new InputSource(in);
-			reader.parse(source);
+			try {
+				reader.setContentHandler(handler);
+				reader.setEntityResolver(handler);
+				InputSource source = new InputSource(in);
+				reader.parse(source);
+			} finally {
+				XMLReaderPool.releaseReader(reader);
+			}
 			int count = handler.bodyElements.size();
 			if (count == 0)
 				throw new FB2FormatException("No body sections found");
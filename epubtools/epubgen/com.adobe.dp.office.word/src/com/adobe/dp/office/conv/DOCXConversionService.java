@@ -3,6 +3,7 @@ package com.adobe.dp.office.conv;
 import java.awt.Image;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -38,6 +39,8 @@ public class DOCXConversionService extends ConversionService {
 
 	boolean pageBreaks = false;
 
+	boolean streaming = false;
+
 	boolean getBooleanProperty(Properties prop, String name, boolean def) {
 		String s = prop.getProperty(name);
 		if (s == null)
@@ -65,6 +68,8 @@ public class DOCXConversionService extends ConversionService {
 
 	public File convert(File src, File[] aux, ConversionClient client, PrintWriter log) {
 		ZipContainerSource resources = null;
+		File partFile = null;
+		OutputStream partOut = null;
 		try {
 			WordDocument doc = new WordDocument(src);
 			Publication epub = new Publication();
@@ -93,6 +98,14 @@ public class DOCXConversionService extends ConversionService {
 				conv.useWordPageBreaks();
 				epub.usePageMap();
 			}
+			OCFContainerWriter container = null;
+			if (streaming) {
+				// file name comes from the title, which is only known at the end
+				partFile = client.makeFile(src.getName() + ".part");
+				partOut = new FileOutputStream(partFile);
+				container = new OCFContainerWriter(partOut);
+				conv.useStreaming(container, embedFonts);
+			}
 			conv.convert();
 			if (embedFonts)
 				conv.embedFonts();
@@ -109,9 +122,16 @@ public class DOCXConversionService extends ConversionService {
 			}
 
 			File outFile = client.makeFile(fname + ".epub");
-			OutputStream out = new FileOutputStream(outFile);
-			OCFContainerWriter container = new OCFContainerWriter(out);
-			epub.serialize(container);
+			if (container == null) {
+				OutputStream out = new FileOutputStream(outFile);
+				container = new OCFContainerWriter(out);
+				epub.serialize(container);
+			} else {
+				epub.serialize(container);
+				partOut = null;
+				if (!partFile.renameTo(outFile))
+					copyFile(partFile, outFile);
+			}
 			return outFile;
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -124,10 +144,36 @@ public class DOCXConversionService extends ConversionService {
 
 				}
 			}
+			if (partFile != null) {
+				if (partOut != null) {
+					try {
+						partOut.close();
+					} catch (IOException e) {
+					}
+				}
+				partFile.delete();
+			}
 		}
 		return null;
 	}
 
+	private static void copyFile(File src, File dest) throws IOException {
+		InputStream in = new FileInputStream(src);
+		try {
+			OutputStream out = new FileOutputStream(dest);
+			try {
+				byte[] buffer = new byte[8 * 1024];
+				int len;
+				while ((len = in.read(buffer)) > 0)
+					out.write(buffer, 0, len);
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
 	public Image getIcon(File src) {
 		return docxicon;
 	}
@@ -137,6 +183,7 @@ public class DOCXConversionService extends ConversionService {
 		adobeMangling = getBooleanProperty(prop, "adobeMangling", adobeMangling);
 		translit = getBooleanProperty(prop, "translit", translit);
 		pageBreaks = getBooleanProperty(prop, "pageBreaks", pageBreaks);
+		streaming = getBooleanProperty(prop, "streaming", streaming);
 	}
 
 	public static void main(String[] args) {
@@ -30,11 +30,13 @@
 
 package com.adobe.dp.office.conv;
 
+import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.util.Date;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.Stack;
 
 import com.adobe.dp.css.CSSLength;
 import com.adobe.dp.css.CSSName;
@@ -45,17 +47,21 @@ import com.adobe.dp.css.Selector;
 import com.adobe.dp.css.SelectorRule;
 import com.adobe.dp.epub.conv.Version;
 import com.adobe.dp.epub.io.ContainerSource;
+import com.adobe.dp.epub.io.ContainerWriter;
+import com.adobe.dp.epub.ncx.TOCEntry;
 import com.adobe.dp.epub.opf.NCXResource;
 import com.adobe.dp.epub.opf.OPSResource;
 import com.adobe.dp.epub.opf.Publication;
 import com.adobe.dp.epub.opf.StyleResource;
 import com.adobe.dp.epub.otf.FontEmbeddingReport;
 import com.adobe.dp.epub.style.Stylesheet;
+import com.adobe.dp.epub.util.TOCLevel;
 import com.adobe.dp.office.word.BodyElement;
 import com.adobe.dp.office.word.MetadataItem;
 import com.adobe.dp.office.word.RunProperties;
 import com.adobe.dp.office.word.Style;
 import com.adobe.dp.office.word.WordDocument;
+import com.adobe.dp.otf.DefaultFontLocator;
 import com.adobe.dp.otf.FontLocator;
 import com.adobe.dp.xml.util.StringUtil;
 
@@ -88,6 +94,14 @@ public class DOCXConverter {
 
 	String lang;
 
+	ContainerWriter streamingContainer;
+
+	boolean streamingFonts;
+
+	FontEmbeddingReport streamingFontReport;
+
+	Stack tocHeadings;
+
 	public DOCXConverter(WordDocument doc, Publication epub) {
 		this.doc = doc;
 		this.epub = epub;
@@ -165,8 +179,36 @@ public class DOCXConverter {
 		this.log = log;
 	}
 
+	/**
+	 * Write each chapter to the container as soon as it is converted, so that
+	 * the whole book does not have to be kept in memory. Fonts can only be
+	 * embedded if requested here; {@link #embedFonts()} then just returns the
+	 * report. After conversion, Publication must be serialized to the same
+	 * container.
+	 * 
+	 * @param container
+	 *            container where the book is written
+	 * @param embedFonts
+	 *            true if fonts should be embedded
+	 */
+	public void useStreaming(ContainerWriter container, boolean embedFonts) {
+		streamingContainer = container;
+		streamingFonts = embedFonts;
+	}
+
 	public void convert() {
 
+		if (streamingContainer != null) {
+			epub.startStreaming(streamingContainer);
+			if (streamingFonts)
+				streamingFontReport = epub.addFontsWhileStreaming(global, (fontLocator != null ? fontLocator
+						: DefaultFontLocator.getInstance()));
+			TOCEntry entry = toc.getRootTOCEntry();
+			entry.removeAll();
+			tocHeadings = new Stack();
+			tocHeadings.push(new TOCLevel(0, entry));
+		}
+
 		OPSResource footnotes = null;
 		if (doc.getFootnotes() != null) {
 			// process footnotes first to build footnote map
@@ -191,11 +233,16 @@ public class DOCXConverter {
 				rule.set("padding", new CSSValueList(' ', padvals));
 			} else {
 				epub.removeResource(footnotes);
+				footnotes = null;
 			}
 		}
 
 		BodyElement body = doc.getBody();
-		WordMLConverter bodyConv = new WordMLConverter(doc, epub, styleConverter, log);
+		WordMLConverter bodyConv = new WordMLConverter(doc, epub, styleConverter, log) {
+			void chapterDone(OPSResource chapter) {
+				finishChapter(chapter);
+			}
+		};
 		bodyConv.setFootnoteMap(footnoteMap);
 		bodyConv.setWordResources(wordResources);
 		bodyConv.findLists(body);
@@ -206,8 +253,10 @@ public class DOCXConverter {
 		}
 		bodyConv.convert(body, ops, true);
 
-		if (footnotes != null)
+		if (footnotes != null) {
 			epub.addToSpine(footnotes);
+			finishChapter(footnotes);
+		}
 
 		if (bodyConv.includeWordMetadata) {
 			// add EPUB metadata from Word metadata, do it in the end, so that
@@ -229,19 +278,46 @@ public class DOCXConverter {
 		epub.addMetadata(null, "DOCX2EPUB.version", Version.VERSION);
 		epub.addMetadata(null, "DOCX2EPUB.conversionDate", StringUtil.dateToW3CDTF(new Date()));
 
-		epub.generateTOCFromHeadings(5);
-		epub.generateStyles(global);
-		epub.splitLargeChapters();
-		epub.cascadeStyles();
+		if (streamingContainer == null) {
+			epub.generateTOCFromHeadings(5);
+			epub.generateStyles(global);
+			epub.splitLargeChapters();
+			epub.cascadeStyles();
+		}
 
 		log.flush();
 	}
 
+	/**
+	 * In streaming mode, do for a single chapter what is otherwise done for
+	 * the whole book at the end of the conversion and write it out.
+	 */
+	void finishChapter(OPSResource chapter) {
+		if (streamingContainer == null)
+			return;
+		chapter.generateTOCFromHeadings(tocHeadings, 5);
+		chapter.getDocument().generateStyles(global.getStylesheet());
+		// same size as Publication.splitLargeChapters()
+		OPSResource[] split = epub.splitLargeChapter(chapter, 100000);
+		if (split == null)
+			split = new OPSResource[] { chapter };
+		try {
+			for (int i = 0; i < split.length; i++) {
+				split[i].getDocument().cascadeStyles();
+				epub.finishResource(split[i]);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("error writing " + chapter.getName() + ": " + e.getMessage(), e);
+		}
+	}
+
 	public void useWordPageBreaks() {
 		useWordPageBreaks = true;
 	}
 
 	public FontEmbeddingReport embedFonts() {
+		if (streamingContainer != null)
+			return streamingFontReport;
 		if (fontLocator != null)
 			return epub.addFonts(global, fontLocator);
 		else
@@ -39,9 +39,6 @@ import java.util.Iterator;
 import java.util.Stack;
 import java.util.StringTokenizer;
 
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
-
 import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
@@ -96,6 +93,7 @@ import com.adobe.dp.office.word.TableProperties;
 import com.adobe.dp.office.word.TableRowElement;
 import com.adobe.dp.office.word.TextElement;
 import com.adobe.dp.office.word.WordDocument;
+import com.adobe.dp.xml.util.XMLReaderPool;
 
 class WordMLConverter {
 
@@ -516,15 +514,16 @@ class WordMLConverter {
 	void parseAndInjectXML(StringBuffer xml) {
 		try {
 			XMLInjector injector = new XMLInjector();
-			SAXParserFactory factory = SAXParserFactory.newInstance();
-			factory.setNamespaceAware(true);
-			SAXParser parser = factory.newSAXParser();
-			XMLReader reader = parser.getXMLReader();
-			reader.setContentHandler(injector);
-			reader.setEntityResolver(injector);
-			InputSource source = new InputSource(new StringReader(xml.toString()));
-			source.setSystemId("");
-			reader.parse(source);
+			XMLReader reader = XMLReaderPool.getReader();
+			try {
+				reader.setContentHandler(injector);
+				reader.setEntityResolver(injector);
+				InputSource source = new InputSource(new StringReader(xml.toString()));
+				source.setSystemId("");
+				reader.parse(source);
+			} finally {
+				XMLReaderPool.releaseReader(reader);
+			}
 		} catch (Exception e) {
 			// e.printStackTrace();
 			e.printStackTrace(log);
@@ -1130,6 +1129,7 @@ class WordMLConverter {
 		resource = ops;
 		com.adobe.dp.office.word.Element child = null;
 		do {
+			OPSResource current = resource;
 			chapter = resource.getDocument();
 			chapter.addStyleResource(global);
 			if (addToSpine)
@@ -1139,9 +1139,16 @@ class WordMLConverter {
 			int depth = pushOPSContainer(body);
 			child = addChildren(wbody, child, 1, 1, null);
 			restoreOPSContainer(depth);
+			chapterDone(current);
 		} while (child != null);
 	}
 
+	/**
+	 * Called when all content of a chapter is converted.
+	 */
+	void chapterDone(OPSResource chapter) {
+	}
+
 	void setWordResources(ContainerSource source) {
 		wordResources = source;
 	}
@@ -40,8 +40,6 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
@@ -58,6 +56,7 @@ import com.adobe.dp.office.vml.VMLElement;
 import com.adobe.dp.office.vml.VMLElementFactory;
 import com.adobe.dp.office.vml.VMLFormulasElement;
 import com.adobe.dp.office.vml.VMLShapeTypeElement;
+import com.adobe.dp.xml.util.XMLReaderPool;
 
 public class WordDocumentParser {
 
@@ -105,8 +104,6 @@ public class WordDocumentParser {
 
 	Stack contextStack;
 
-	SAXParserFactory factory;
-
 	String stylesName;
 
 	String fontsName;
@@ -844,8 +841,6 @@ public class WordDocumentParser {
 		doc.docDefaultRunStyle = new Style("__r");
 		doc.stylesById = new Hashtable();
 		zip = new ZipFile(docFile);
-		factory = SAXParserFactory.newInstance();
-		factory.setNamespaceAware(true);
 		rels = new Hashtable();
 		contextStack = new Stack();
 		numberingName = null;
@@ -922,16 +917,19 @@ public class WordDocumentParser {
 		if (entry == null)
 			return;
 		try {
-			SAXParser parser = factory.newSAXParser();
-			XMLReader reader = parser.getXMLReader();
-			int index = entryName.lastIndexOf('/');
-			String xrefPrefix = entryName.substring(0, index + 1);
-			XMLHandler handler = new XMLHandler(xrefPrefix);
-			reader.setContentHandler(handler);
-			InputStream in = zip.getInputStream(entry);
-			InputSource source = new InputSource(in);
-			source.setSystemId(entryName);
-			reader.parse(source);
+			XMLReader reader = XMLReaderPool.getReader();
+			try {
+				int index = entryName.lastIndexOf('/');
+				String xrefPrefix = entryName.substring(0, index + 1);
+				XMLHandler handler = new XMLHandler(xrefPrefix);
+				reader.setContentHandler(handler);
+				InputStream in = zip.getInputStream(entry);
+				InputSource source = new InputSource(in);
+				source.setSystemId(entryName);
+				reader.parse(source);
+			} finally {
+				XMLReaderPool.releaseReader(reader);
+			}
 		} catch (ParserConfigurationException e) {
 			e.printStackTrace();
 		} catch (SAXException e) {
@@ -32,6 +32,7 @@ package com.adobe.dp.otf;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class ByteArrayFontInputStream implements FontInputStream {
 
@@ -61,5 +62,13 @@ public class ByteArrayFontInputStream implements FontInputStream {
 
 	public void close() {
 	}
+
+	byte[] getData() {
+		return arr;
+	}
+
+	ByteBuffer getByteBuffer() {
+		return ByteBuffer.wrap(arr);
+	}
 	
 }
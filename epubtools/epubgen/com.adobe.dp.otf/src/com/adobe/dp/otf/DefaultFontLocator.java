@@ -32,6 +32,7 @@ package com.adobe.dp.otf;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Vector;
 
@@ -41,18 +42,48 @@ public class DefaultFontLocator extends SimpleFontLocator {
 
 	final String[] dirs;
 
+	final FontIndex index;
+
 	private DefaultFontLocator() {
 		String[] builtInDirs = { "C:\\windows\\fonts" /* win */, "/Library/Fonts" /* mac */};
 		dirs = builtInDirs;
+		index = FontIndex.getDefaultIndex();
 		init();
 	}
 
 	public DefaultFontLocator(String[] dirs) {
+		this(dirs, FontIndex.getDefaultIndex());
+	}
+
+	/**
+	 * Locator for fonts in the given directories; the index keeps font
+	 * properties between runs so that only new and changed files are parsed.
+	 */
+	public DefaultFontLocator(String[] dirs, FontIndex index) {
 		this.dirs = dirs;
+		this.index = index;
 		init();
 	}
 
+	protected void collectFonts(Hashtable map) {
+		Vector names = listFiles();
+		File[] files = new File[names.size()];
+		for (int i = 0; i < files.length; i++)
+			files[i] = new File((String) names.elementAt(i));
+		Hashtable props = index.getFontProperties(files);
+		for (int i = 0; i < files.length; i++) {
+			String name = (String) names.elementAt(i);
+			FontProperties key = (FontProperties) props.get(name);
+			if (key != null)
+				map.put(key, name);
+		}
+	}
+
 	protected Iterator getStreamNames() {
+		return listFiles().iterator();
+	}
+
+	private Vector listFiles() {
 		Vector fonts = new Vector();
 		String[] fontDirs = dirs;
 		for (int i = 0; i < fontDirs.length; i++) {
@@ -69,7 +100,7 @@ public class DefaultFontLocator extends SimpleFontLocator {
 				fonts.add(file.getAbsolutePath());
 			}
 		}
-		return fonts.iterator();
+		return fonts;
 	}
 
 	protected FontInputStream getStream(String name) throws IOException {
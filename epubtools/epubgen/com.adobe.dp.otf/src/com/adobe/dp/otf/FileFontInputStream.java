@@ -37,9 +37,12 @@ import java.io.RandomAccessFile;
 public class FileFontInputStream implements FontInputStream {
 
 	RandomAccessFile io;
+
+	File file;
 	
 	public FileFontInputStream(File f) throws IOException {
 		io = new RandomAccessFile(f, "r");
+		file = f;
 	}
 	
 	public void seek(int pos)  throws IOException {
@@ -0,0 +1,155 @@
+/*******************************************************************************
+* Copyright (c) 2009, Adobe Systems Incorporated
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without 
+* modification, are permitted provided that the following conditions are met:
+*
+* ·        Redistributions of source code must retain the above copyright 
+*          notice, this list of conditions and the following disclaimer. 
+*
+* ·        Redistributions in binary form must reproduce the above copyright 
+*		   notice, this list of conditions and the following disclaimer in the
+*		   documentation and/or other materials provided with the distribution. 
+*
+* ·        Neither the name of Adobe Systems Incorporated nor the names of its 
+*		   contributors may be used to endorse or promote products derived from
+*		   this software without specific prior written permission. 
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR 
+* ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+* (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+* OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+* THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+* (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+* SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*******************************************************************************/
+
+package com.adobe.dp.otf;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Process-wide cache of parsed fonts. A font is identified by the file it
+ * comes from (path, size and modification time) or, for fonts held in memory,
+ * by the SHA-1 digest of its content. Cached fonts are never modified: each
+ * call to {@link #getFont(FontInputStream)} returns a new OpenTypeFont that
+ * shares the parsed tables but keeps its own record of used characters and
+ * glyphs, so several conversions can subset the same font at once. The
+ * least recently used fonts are dropped when the estimated size of the parsed
+ * data goes over the limit; font files they were parsed from are unmapped
+ * once no font instance uses them any longer.
+ */
+public class FontCache {
+
+	private static FontCache instance = new FontCache(32 * 1024 * 1024);
+
+	private final long maxSize;
+
+	private long size;
+
+	private LinkedHashMap fonts = new LinkedHashMap(16, 0.75f, true);
+
+	static class CacheEntry {
+		OpenTypeFont font;
+
+		int size;
+	}
+
+	public FontCache(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public static FontCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Get a font for subsetting. Fonts that can be parsed in place (memory
+	 * mapped, file-based or held in memory) are served from the cache; for
+	 * other streams the font is simply parsed. File-based streams are closed,
+	 * as cached fonts read the file through a mapping instead.
+	 */
+	public OpenTypeFont getFont(FontInputStream in) throws IOException {
+		FontInputStream source = in;
+		String key;
+		if (in instanceof MappedFontInputStream) {
+			key = ((MappedFontInputStream) in).getSourceKey();
+		} else if (in instanceof FileFontInputStream) {
+			File file = ((FileFontInputStream) in).file;
+			key = file.getAbsolutePath() + ":" + file.length() + ":"
+					+ file.lastModified();
+			source = null;
+			in.close();
+		} else if (in instanceof ByteArrayFontInputStream) {
+			key = digest(((ByteArrayFontInputStream) in).getData());
+		} else {
+			key = null;
+		}
+		if (key == null)
+			return new OpenTypeFont(in);
+		CacheEntry entry;
+		synchronized (this) {
+			entry = (CacheEntry) fonts.get(key);
+		}
+		if (entry == null) {
+			// parse outside of the lock, other fonts can be served meanwhile
+			if (source == null) {
+				File file = ((FileFontInputStream) in).file;
+				source = MappedFontInputStream.open(file);
+			}
+			entry = new CacheEntry();
+			entry.font = new OpenTypeFont(source);
+			entry.font.sourceKey = key;
+			entry.size = entry.font.getParsedSize();
+			synchronized (this) {
+				CacheEntry other = (CacheEntry) fonts.get(key);
+				if (other != null) {
+					entry = other;
+				} else {
+					fonts.put(key, entry);
+					size += entry.size;
+					evict();
+				}
+			}
+		}
+		return entry.font.newInstance();
+	}
+
+	private void evict() {
+		Iterator it = fonts.values().iterator();
+		while (size > maxSize && fonts.size() > 1) {
+			CacheEntry entry = (CacheEntry) it.next();
+			it.remove();
+			size -= entry.size;
+		}
+	}
+
+	public synchronized void clear() {
+		fonts.clear();
+		size = 0;
+	}
+
+	private static String digest(byte[] data) {
+		try {
+			MessageDigest sha = MessageDigest.getInstance("SHA-1");
+			byte[] hash = sha.digest(data);
+			StringBuffer sb = new StringBuffer("sha1:");
+			for (int i = 0; i < hash.length; i++) {
+				sb.append(Character.forDigit((hash[i] >> 4) & 0xF, 16));
+				sb.append(Character.forDigit(hash[i] & 0xF, 16));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,354 @@
+/*******************************************************************************
+* Copyright (c) 2009, Adobe Systems Incorporated
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without 
+* modification, are permitted provided that the following conditions are met:
+*
+* ·        Redistributions of source code must retain the above copyright 
+*          notice, this list of conditions and the following disclaimer. 
+*
+* ·        Redistributions in binary form must reproduce the above copyright 
+*		   notice, this list of conditions and the following disclaimer in the
+*		   documentation and/or other materials provided with the distribution. 
+*
+* ·        Neither the name of Adobe Systems Incorporated nor the names of its 
+*		   contributors may be used to endorse or promote products derived from
+*		   this software without specific prior written permission. 
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR 
+* ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+* (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+* OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+* THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+* (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+* SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*******************************************************************************/
+
+package com.adobe.dp.otf;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * Persistent index of font files: for each file it records size, modification
+ * time, embedding flags and family, weight and style, so that font
+ * directories can be scanned without parsing every font on every start. Only
+ * new and changed files are parsed, on several threads. The index is a UTF-8
+ * text file with one tab-separated line per file.
+ */
+public class FontIndex {
+
+	private static final String HEADER = "# font index 1";
+
+	private static Hashtable indices = new Hashtable();
+
+	private File indexFile;
+
+	private Hashtable entries;
+
+	private boolean dirty;
+
+	static class IndexEntry {
+		String path;
+
+		long size;
+
+		long lastModified;
+
+		// -1 if the file is not a usable font
+		int fsType = -1;
+
+		String familyName;
+
+		int weight;
+
+		int style;
+
+		boolean isCurrent(File file) {
+			return size == file.length() && lastModified == file.lastModified();
+		}
+	}
+
+	/**
+	 * Index backed by the given file; pass null for an index that is only
+	 * kept in memory.
+	 */
+	public FontIndex(File indexFile) {
+		this.indexFile = indexFile;
+	}
+
+	/**
+	 * Shared index for the given file, so that all users in this process
+	 * update the same data.
+	 */
+	public static synchronized FontIndex getIndex(File indexFile) {
+		String key = indexFile.getAbsolutePath();
+		FontIndex index = (FontIndex) indices.get(key);
+		if (index == null) {
+			index = new FontIndex(indexFile);
+			indices.put(key, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Index in ".epubgen" in the user's home directory, unless the
+	 * "epubgen.fontindex" system property names another file.
+	 */
+	public static FontIndex getDefaultIndex() {
+		String path = System.getProperty("epubgen.fontindex");
+		File file;
+		if (path != null)
+			file = new File(path);
+		else
+			file = new File(new File(System.getProperty("user.home"),
+					".epubgen"), "fontindex.txt");
+		return getIndex(file);
+	}
+
+	/**
+	 * Get properties of the fonts that can be embedded, parsing only the
+	 * files that are not in the index yet or changed since they were indexed.
+	 * 
+	 * @return table mapping absolute file paths to FontProperties
+	 */
+	public synchronized Hashtable getFontProperties(File[] files) {
+		if (entries == null)
+			load();
+		Vector stale = new Vector();
+		IndexEntry[] current = new IndexEntry[files.length];
+		for (int i = 0; i < files.length; i++) {
+			String path = files[i].getAbsolutePath();
+			IndexEntry entry = (IndexEntry) entries.get(path);
+			if (entry == null || !entry.isCurrent(files[i])) {
+				entry = new IndexEntry();
+				entry.path = path;
+				entry.size = files[i].length();
+				entry.lastModified = files[i].lastModified();
+				stale.add(entry);
+			}
+			current[i] = entry;
+		}
+		if (stale.size() > 0) {
+			parseAll(stale);
+			for (int i = 0; i < stale.size(); i++) {
+				IndexEntry entry = (IndexEntry) stale.elementAt(i);
+				entries.put(entry.path, entry);
+			}
+			dirty = true;
+		}
+		removeDeleted(files);
+		if (dirty)
+			save();
+		Hashtable result = new Hashtable();
+		for (int i = 0; i < current.length; i++) {
+			IndexEntry entry = current[i];
+			if (entry.fsType >= 0
+					&& OpenTypeFont.canEmbedForReading(entry.fsType)) {
+				result.put(entry.path, new FontProperties(entry.familyName,
+						entry.weight, entry.style));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Drop entries for files that are gone from the scanned directories.
+	 */
+	private void removeDeleted(File[] files) {
+		HashSet dirs = new HashSet();
+		HashSet paths = new HashSet();
+		for (int i = 0; i < files.length; i++) {
+			File file = files[i].getAbsoluteFile();
+			paths.add(file.getPath());
+			dirs.add(file.getParent());
+		}
+		Enumeration list = entries.elements();
+		while (list.hasMoreElements()) {
+			IndexEntry entry = (IndexEntry) list.nextElement();
+			if (!paths.contains(entry.path)
+					&& dirs.contains(new File(entry.path).getParent())
+					&& !new File(entry.path).exists()) {
+				entries.remove(entry.path);
+				dirty = true;
+			}
+		}
+	}
+
+	private static void parse(IndexEntry entry) {
+		FontInputStream in = null;
+		try {
+			in = new FileFontInputStream(new File(entry.path));
+			OpenTypeFont font = new OpenTypeFont(in, true);
+			if (font.getFamilyName() != null) {
+				entry.familyName = font.getFamilyName();
+				entry.weight = font.getWeight();
+				entry.style = font.getStyle();
+				entry.fsType = font.fsType & 0xFFFF;
+			}
+		} catch (Exception e) {
+			// not a font
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	private static void parseAll(final Vector stale) {
+		int threadCount = Math.min(Runtime.getRuntime().availableProcessors(),
+				stale.size());
+		if (threadCount <= 1) {
+			for (int i = 0; i < stale.size(); i++)
+				parse((IndexEntry) stale.elementAt(i));
+			return;
+		}
+		final int[] next = new int[1];
+		Thread[] threads = new Thread[threadCount];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread("FontIndex-" + i) {
+				public void run() {
+					while (true) {
+						IndexEntry entry;
+						synchronized (next) {
+							if (next[0] >= stale.size())
+								return;
+							entry = (IndexEntry) stale.elementAt(next[0]++);
+						}
+						parse(entry);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		boolean interrupted = false;
+		for (int i = 0; i < threads.length; i++) {
+			try {
+				threads[i].join();
+			} catch (InterruptedException e) {
+				// the index must be complete, keep waiting
+				interrupted = true;
+				i--;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	private void load() {
+		entries = new Hashtable();
+		if (indexFile == null || !indexFile.isFile())
+			return;
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					new FileInputStream(indexFile), "UTF-8"));
+			try {
+				String line = reader.readLine();
+				if (!HEADER.equals(line))
+					return; // unknown format, rebuild
+				while ((line = reader.readLine()) != null) {
+					IndexEntry entry = parseLine(line);
+					if (entry != null)
+						entries.put(entry.path, entry);
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static IndexEntry parseLine(String line) {
+		String[] fields = new String[7];
+		int start = 0;
+		for (int i = 0; i < fields.length - 1; i++) {
+			int tab = line.indexOf('\t', start);
+			if (tab < 0)
+				return null;
+			fields[i] = line.substring(start, tab);
+			start = tab + 1;
+		}
+		fields[fields.length - 1] = line.substring(start);
+		try {
+			IndexEntry entry = new IndexEntry();
+			entry.size = Long.parseLong(fields[0]);
+			entry.lastModified = Long.parseLong(fields[1]);
+			entry.fsType = Integer.parseInt(fields[2]);
+			entry.weight = Integer.parseInt(fields[3]);
+			entry.style = Integer.parseInt(fields[4]);
+			entry.familyName = fields[5];
+			entry.path = fields[6];
+			return entry;
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private void save() {
+		dirty = false;
+		if (indexFile == null)
+			return;
+		File tmp = null;
+		try {
+			File dir = indexFile.getAbsoluteFile().getParentFile();
+			dir.mkdirs();
+			tmp = File.createTempFile("fontindex", ".tmp", dir);
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(
+					new FileOutputStream(tmp), "UTF-8"));
+			out.print(HEADER);
+			out.print('\n');
+			Enumeration list = entries.elements();
+			while (list.hasMoreElements()) {
+				IndexEntry entry = (IndexEntry) list.nextElement();
+				if (entry.path.indexOf('\n') >= 0)
+					continue;
+				out.print(entry.size);
+				out.print('\t');
+				out.print(entry.lastModified);
+				out.print('\t');
+				out.print(entry.fsType);
+				out.print('\t');
+				out.print(entry.weight);
+				out.print('\t');
+				out.print(entry.style);
+				out.print('\t');
+				if (entry.familyName != null)
+					out.print(entry.familyName.replace('\t', ' ').replace(
+							'\n', ' '));
+				out.print('\t');
+				out.print(entry.path);
+				out.print('\n');
+			}
+			out.close();
+			if (out.checkError())
+				throw new IOException("could not write " + tmp);
+			indexFile.delete();
+			if (!tmp.renameTo(indexFile))
+				throw new IOException("could not rename " + tmp);
+			tmp = null;
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			if (tmp != null)
+				tmp.delete();
+		}
+	}
+}
@@ -0,0 +1,182 @@
+/*******************************************************************************
+* Copyright (c) 2009, Adobe Systems Incorporated
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without 
+* modification, are permitted provided that the following conditions are met:
+*
+* ·        Redistributions of source code must retain the above copyright 
+*          notice, this list of conditions and the following disclaimer. 
+*
+* ·        Redistributions in binary form must reproduce the above copyright 
+*		   notice, this list of conditions and the following disclaimer in the
+*		   documentation and/or other materials provided with the distribution. 
+*
+* ·        Neither the name of Adobe Systems Incorporated nor the names of its 
+*		   contributors may be used to endorse or promote products derived from
+*		   this software without specific prior written permission. 
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR 
+* ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+* (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+* OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+* THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+* (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+* SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*******************************************************************************/
+
+package com.adobe.dp.otf;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Hashtable;
+import java.util.Iterator;
+
+/**
+ * FontInputStream over a read-only memory-mapped font file. The mapping itself
+ * is never modified, so any number of threads can read it at the same time,
+ * each through its own view (see {@link #newView()}). Views are cheap: they do
+ * not open file handles and reads are plain memory copies.
+ */
+public class MappedFontInputStream implements FontInputStream {
+
+	/**
+	 * Shared mappings by file path. Mappings are only weakly held here: once
+	 * no stream or cached font uses a file, it is unmapped and can be deleted
+	 * or replaced.
+	 */
+	private static Hashtable mappings = new Hashtable();
+
+	static class SharedMapping {
+		WeakReference mapping;
+
+		long lastModified;
+	}
+
+	private final File file;
+
+	private final ByteBuffer mapping;
+
+	private final long lastModified;
+
+	private final ByteBuffer data;
+
+	/**
+	 * Map the given file. The file handle is released right away, the mapping
+	 * stays valid until this stream and all its views are garbage-collected.
+	 */
+	public MappedFontInputStream(File file) throws IOException {
+		this.file = file;
+		RandomAccessFile io = new RandomAccessFile(file, "r");
+		try {
+			lastModified = file.lastModified();
+			FileChannel channel = io.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("font file is too large: " + file);
+			mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		} finally {
+			io.close();
+		}
+		data = view(mapping);
+	}
+
+	private MappedFontInputStream(File file, ByteBuffer mapping,
+			long lastModified) {
+		this.file = file;
+		this.mapping = mapping;
+		this.lastModified = lastModified;
+		this.data = view(mapping);
+	}
+
+	private static ByteBuffer view(ByteBuffer mapping) {
+		ByteBuffer view = mapping.duplicate();
+		view.order(ByteOrder.BIG_ENDIAN);
+		return view;
+	}
+
+	/**
+	 * Return a view of a process-wide shared mapping of the given file. The
+	 * file is mapped again if it changed since it was last mapped.
+	 */
+	public static synchronized MappedFontInputStream open(File file) throws IOException {
+		String key = file.getAbsolutePath();
+		SharedMapping shared = (SharedMapping) mappings.get(key);
+		ByteBuffer mapping = shared == null ? null : (ByteBuffer) shared.mapping.get();
+		if (mapping == null || shared.lastModified != file.lastModified()
+				|| mapping.capacity() != file.length()) {
+			MappedFontInputStream stream = new MappedFontInputStream(file);
+			removeReleased();
+			shared = new SharedMapping();
+			shared.mapping = new WeakReference(stream.mapping);
+			shared.lastModified = stream.lastModified;
+			mappings.put(key, shared);
+			return stream;
+		}
+		return new MappedFontInputStream(file, mapping, shared.lastModified);
+	}
+
+	private static void removeReleased() {
+		Iterator it = mappings.values().iterator();
+		while (it.hasNext()) {
+			SharedMapping shared = (SharedMapping) it.next();
+			if (shared.mapping.get() == null)
+				it.remove();
+		}
+	}
+
+	/**
+	 * Create a new stream over the same mapping with its own read position.
+	 */
+	public MappedFontInputStream newView() {
+		return new MappedFontInputStream(file, mapping, lastModified);
+	}
+
+	/**
+	 * Identifies the mapped content: file path, size and modification time.
+	 */
+	String getSourceKey() {
+		return file.getAbsolutePath() + ":" + mapping.capacity() + ":"
+				+ lastModified;
+	}
+
+	/**
+	 * Buffer over the font data with its own position, for callers that parse
+	 * the font in place instead of copying it through read().
+	 */
+	ByteBuffer getByteBuffer() {
+		return view(mapping);
+	}
+
+	public void seek(int pos) throws IOException {
+		if (pos < 0)
+			throw new IOException("negative seek offset");
+		if (pos > data.limit())
+			throw new EOFException();
+		data.position(pos);
+	}
+
+	public int read(byte[] arr, int offset, int len) throws IOException {
+		int maxlen = data.remaining();
+		if (maxlen <= 0)
+			throw new EOFException();
+		if (len > maxlen)
+			len = maxlen;
+		data.get(arr, offset, len);
+		return len;
+	}
+
+	public void close() {
+		// the mapping is shared, it is released when no longer referenced
+	}
+
+}
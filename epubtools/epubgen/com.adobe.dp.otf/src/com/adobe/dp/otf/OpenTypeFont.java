@@ -36,6 +36,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.BitSet;
 import java.util.Date;
 import java.util.Enumeration;
@@ -46,6 +47,9 @@ public class OpenTypeFont implements FontPropertyConstants {
 
 	FontInputStream font;
 
+	// font data when it can be parsed in place (memory-mapped fonts)
+	ByteBuffer data;
+
 	FileHeader header;
 
 	byte[] buffer = new byte[256];
@@ -76,8 +80,30 @@ public class OpenTypeFont implements FontPropertyConstants {
 
 	NameEntry[] names;
 
-	// TODO: binary tree is probably more appropriate here
-	Hashtable characters = new Hashtable();
+	/**
+	 * Unicode cmap as 256 pages of 256 chars; an entry holds glyph index + 1,
+	 * or 0 if the character is not in the cmap
+	 */
+	char[][] cmap = new char[256][];
+
+	/**
+	 * Characters that were played and are present in the cmap
+	 */
+	BitSet neededChars = new BitSet();
+
+	/**
+	 * Glyphs to be included in the subset
+	 */
+	BitSet neededGlyphs = new BitSet();
+
+	BitSet compositeGlyphsTT = new BitSet();
+
+	int[] newGlyphIndex;
+
+	/**
+	 * Identifies the font data for fonts that come from the FontCache
+	 */
+	String sourceKey;
 
 	private static int CFF_STD_STRING_COUNT = 391;
 
@@ -116,6 +142,22 @@ public class OpenTypeFont implements FontPropertyConstants {
 		TableDirectoryEntry[] tableDirectory;
 
 		Hashtable tableMap = new Hashtable();
+
+		FileHeader copy() {
+			FileHeader h = new FileHeader();
+			h.version = version;
+			h.numTables = numTables;
+			h.searchRange = searchRange;
+			h.entrySelector = entrySelector;
+			h.rangeShift = rangeShift;
+			h.tableDirectory = new TableDirectoryEntry[tableDirectory.length];
+			for (int i = 0; i < tableDirectory.length; i++) {
+				TableDirectoryEntry entry = tableDirectory[i].copy();
+				h.tableDirectory[i] = entry;
+				h.tableMap.put(entry.identifier, entry);
+			}
+			return h;
+		}
 	}
 
 	static class TableDirectoryEntry {
@@ -132,13 +174,18 @@ public class OpenTypeFont implements FontPropertyConstants {
 		byte[] newContent;
 
 		int newRelativeOffset;
+
+		TableDirectoryEntry copy() {
+			TableDirectoryEntry entry = new TableDirectoryEntry();
+			entry.identifier = identifier;
+			entry.checkSum = checkSum;
+			entry.offset = offset;
+			entry.length = length;
+			return entry;
+		}
 	}
 
 	static class GlyphData {
-		boolean need;
-
-		boolean compositeTT;
-
 		int offset;
 
 		int length;
@@ -147,17 +194,9 @@ public class OpenTypeFont implements FontPropertyConstants {
 
 		short lsb;
 
-		int newIndex;
-
 		int namesidCFF;
 	}
 
-	static class CharacterData {
-		short glyphIndex;
-
-		boolean need;
-	}
-
 	static class EncodingRecord {
 		short platformID;
 
@@ -190,6 +229,17 @@ public class OpenTypeFont implements FontPropertyConstants {
 		byte[] newContent;
 
 		int newRelativeOffset;
+
+		NameEntry copy() {
+			NameEntry entry = new NameEntry();
+			entry.platformID = platformID;
+			entry.encodingID = encodingID;
+			entry.languageID = languageID;
+			entry.nameID = nameID;
+			entry.offset = offset;
+			entry.length = length;
+			return entry;
+		}
 	}
 
 	static class Range {
@@ -262,6 +312,10 @@ public class OpenTypeFont implements FontPropertyConstants {
 	public OpenTypeFont(FontInputStream font, boolean queryOnly)
 			throws IOException {
 		this.font = font;
+		if (font instanceof MappedFontInputStream)
+			data = ((MappedFontInputStream) font).getByteBuffer();
+		else if (font instanceof ByteArrayFontInputStream)
+			data = ((ByteArrayFontInputStream) font).getByteBuffer();
 		readFileHeader();
 		readOS2();
 		readNames();
@@ -272,24 +326,106 @@ public class OpenTypeFont implements FontPropertyConstants {
 		}
 	}
 
+	/**
+	 * Create a font that shares all parsed data with the given one, but keeps
+	 * its own record of needed characters and glyphs. The parsed font is only
+	 * read, so any number of copies can be made and used concurrently.
+	 */
+	private OpenTypeFont(OpenTypeFont parsed) {
+		font = parsed.font;
+		sourceKey = parsed.sourceKey;
+		data = parsed.data.duplicate();
+		header = parsed.header.copy();
+		trueTypeGlyphs = parsed.trueTypeGlyphs;
+		glyphs = parsed.glyphs;
+		fsType = parsed.fsType;
+		maxGlyphSize = parsed.maxGlyphSize;
+		variableWidthCount = parsed.variableWidthCount;
+		familyName = parsed.familyName;
+		weight = parsed.weight;
+		width = parsed.width;
+		style = parsed.style;
+		names = new NameEntry[parsed.names.length];
+		for (int i = 0; i < names.length; i++)
+			names[i] = parsed.names[i].copy();
+		cmap = parsed.cmap;
+		nameCFF = parsed.nameCFF;
+		dictCFF = parsed.dictCFF;
+		privateDictCFF = parsed.privateDictCFF;
+		globalSubrsCFF = parsed.globalSubrsCFF;
+		privateSubrsCFF = parsed.privateSubrsCFF;
+		if (parsed.stringsCFF != null) {
+			stringsCFF = new StringCFF[parsed.stringsCFF.length];
+			for (int i = 0; i < stringsCFF.length; i++) {
+				stringsCFF[i] = new StringCFF();
+				stringsCFF[i].value = parsed.stringsCFF[i].value;
+			}
+		}
+	}
+
+	/**
+	 * Copy of this font for subsetting, see {@link FontCache}. Only fonts
+	 * parsed in place (from a memory-mapped file or a byte array) and not in
+	 * query-only mode can be copied.
+	 */
+	OpenTypeFont newInstance() {
+		if (data == null || glyphs == null)
+			throw new IllegalStateException("font data cannot be shared");
+		return new OpenTypeFont(this);
+	}
+
+	/**
+	 * Rough estimate of the heap memory taken by the parsed font data.
+	 */
+	int getParsedSize() {
+		int size = 512 + 40 * glyphs.length + 48 * names.length;
+		for (int i = 0; i < cmap.length; i++)
+			if (cmap[i] != null)
+				size += 528;
+		if (stringsCFF != null)
+			size += 64 * stringsCFF.length;
+		if (globalSubrsCFF != null)
+			size += 24 * globalSubrsCFF.length;
+		if (privateSubrsCFF != null)
+			size += 24 * privateSubrsCFF.length;
+		if (data.hasArray())
+			size += data.capacity();
+		return size;
+	}
+
 	private void readBuffer(int size) throws IOException {
-		int len = font.read(buffer, 0, size);
-		if (len != size)
-			throw new IOException("could not read " + size + " bytes");
-		currentOffset += size;
+		readBuffer(buffer, size);
 	}
 
 	private void readBuffer(byte[] buf, int size) throws IOException {
-		int len = font.read(buf, 0, size);
-		if (len != size)
-			throw new IOException("could not read " + size + " bytes");
+		if (data != null) {
+			checkAvailable(size);
+			data.position(currentOffset);
+			data.get(buf, 0, size);
+		} else {
+			int len = font.read(buf, 0, size);
+			if (len != size)
+				throw new IOException("could not read " + size + " bytes");
+		}
 		currentOffset += size;
 	}
 
+	private void checkAvailable(int size) throws IOException {
+		if (size > data.limit() - currentOffset)
+			throw new IOException("could not read " + size + " bytes");
+	}
+
 	private short[] readShorts(int size) throws IOException {
 		if (size < 0)
 			System.err.println("Bug!");
 		short[] arr = new short[size];
+		if (data != null) {
+			checkAvailable(2 * size);
+			data.position(currentOffset);
+			data.asShortBuffer().get(arr);
+			currentOffset += 2 * size;
+			return arr;
+		}
 		int offset = 0;
 		while (size > 0) {
 			int count = size;
@@ -305,7 +441,12 @@ public class OpenTypeFont implements FontPropertyConstants {
 	}
 
 	private void seek(int offset) throws IOException {
-		font.seek(offset);
+		if (data != null) {
+			if (offset < 0 || offset > data.limit())
+				throw new IOException("bad seek offset " + offset);
+		} else {
+			font.seek(offset);
+		}
 		currentOffset = offset;
 	}
 
@@ -346,7 +487,10 @@ public class OpenTypeFont implements FontPropertyConstants {
 			throw new IOException("bad 'loca' table size");
 		byte[] buf = new byte[locations.length];
 		seek(locations.offset);
-		font.read(buf, 0, buf.length);
+		if (data != null)
+			readBuffer(buf, buf.length);
+		else
+			font.read(buf, 0, buf.length);
 		GlyphData[] data = new GlyphData[glyphCount];
 		int offset = 0;
 		for (int i = 0; i <= glyphCount; i++) {
@@ -753,17 +897,23 @@ public class OpenTypeFont implements FontPropertyConstants {
 			short rangeOffset = (short) (idRangeOffset[i] / 2);
 			short delta = idDelta[i];
 			for (int ch = start; ch <= end; ch++) {
-				CharacterData data = new CharacterData();
+				int glyphIndex;
 				if (rangeOffset == 0)
-					data.glyphIndex = (short) (ch + delta);
+					glyphIndex = (ch + delta) & 0xFFFF;
 				else {
 					int index = ch - start + rangeOffset - (segCount - i);
-					int glyphIndex = glyphIds[index];
+					glyphIndex = glyphIds[index] & 0xFFFF;
 					if (glyphIndex != 0)
-						glyphIndex += delta;
-					data.glyphIndex = (short) glyphIndex;
+						glyphIndex = (glyphIndex + delta) & 0xFFFF;
+				}
+				if (glyphIndex == 0xFFFF)
+					continue; // cannot be a valid glyph
+				char[] page = cmap[ch >> 8];
+				if (page == null) {
+					page = new char[256];
+					cmap[ch >> 8] = page;
 				}
-				characters.put(new Integer(ch), data);
+				page[ch & 0xFF] = (char) (glyphIndex + 1);
 			}
 		}
 	}
@@ -862,42 +1012,89 @@ public class OpenTypeFont implements FontPropertyConstants {
 	}
 
 	public void play(char[] text, int offset, int len) {
+		int end = offset + len;
+		for (int i = offset; i < end; i++)
+			play(text[i]);
+	}
+
+	/**
+	 * Mark all characters of the string as needed.
+	 * 
+	 * @return true if at least one character was found in the font
+	 */
+	public boolean play(String text) {
+		boolean found = false;
+		int len = text.length();
 		for (int i = 0; i < len; i++) {
-			int ch = (text[i] & 0xFFFF);
-			play((char) ch);
+			if (play(text.charAt(i)))
+				found = true;
+		}
+		return found;
+	}
+
+	/**
+	 * Mark all characters in the given range (inclusive) as needed. Only the
+	 * Basic Multilingual Plane is supported.
+	 * 
+	 * @return true if at least one character was found in the font
+	 */
+	public boolean playRange(int first, int last) {
+		boolean found = false;
+		if (first < 0)
+			first = 0;
+		if (last > 0xFFFF)
+			last = 0xFFFF;
+		for (int ch = first; ch <= last; ch++) {
+			if (cmap[ch >> 8] == null) {
+				ch |= 0xFF; // skip the whole page
+				continue;
+			}
+			if (play((char) ch))
+				found = true;
 		}
+		return found;
 	}
 
 	public final boolean play(char ch) {
-		CharacterData chData = (CharacterData) characters.get(new Integer(ch));
-		if (chData != null) {
-			chData.need = true;
-			if (chData.glyphIndex >= 0 && chData.glyphIndex < glyphs.length) {
-				GlyphData glyph = glyphs[chData.glyphIndex];
-				glyph.need = true;
-				return true;
-			}
+		char[] page = cmap[ch >> 8];
+		if (page == null)
+			return false;
+		int glyphIndex = page[ch & 0xFF] - 1;
+		if (glyphIndex < 0)
+			return false;
+		neededChars.set(ch);
+		if (glyphIndex < glyphs.length) {
+			neededGlyphs.set(glyphIndex);
+			return true;
 		}
 		return false;
 	}
 
+	private int getGlyphIndex(int ch) {
+		char[] page = cmap[ch >> 8];
+		return page == null ? -1 : page[ch & 0xFF] - 1;
+	}
+
+	private int nextNeededGlyph(int i) {
+		i = neededGlyphs.nextSetBit(i);
+		return i < glyphs.length ? i : -1;
+	}
+
 	private void reindexGlyphs() {
+		neededGlyphs.set(0, Math.min(2, glyphs.length));
+		newGlyphIndex = new int[glyphs.length];
 		int index = 0;
 		int lastAdvance = 0x10000;
-		for (int i = 0; i < glyphs.length; i++) {
-			if (i < 2)
-				glyphs[i].need = true;
-			if (glyphs[i].need) {
-				glyphs[i].newIndex = index++;
-				if (glyphs[i].advance != lastAdvance) {
-					lastAdvance = glyphs[i].advance;
-					newVariableWidthCount = index;
-				}
-				if (stringsCFF != null) {
-					int sid = glyphs[i].namesidCFF;
-					if (sid >= CFF_STD_STRING_COUNT)
-						stringsCFF[sid - CFF_STD_STRING_COUNT].needed = true;
-				}
+		for (int i = nextNeededGlyph(0); i >= 0; i = nextNeededGlyph(i + 1)) {
+			newGlyphIndex[i] = index++;
+			if (glyphs[i].advance != lastAdvance) {
+				lastAdvance = glyphs[i].advance;
+				newVariableWidthCount = index;
+			}
+			if (stringsCFF != null) {
+				int sid = glyphs[i].namesidCFF;
+				if (sid >= CFF_STD_STRING_COUNT)
+					stringsCFF[sid - CFF_STD_STRING_COUNT].needed = true;
 			}
 		}
 		newGlyphCount = index;
@@ -919,27 +1116,27 @@ public class OpenTypeFont implements FontPropertyConstants {
 	}
 
 	private void resolveCompositeGlyphsTT() throws IOException {
-		for (int i = 0; i < glyphs.length; i++) {
-			if (glyphs[i].need) {
-				seek(glyphs[i].offset);
-				readBuffer(10);
-				short numberOfContours = getShort(buffer, 0);
-				if (numberOfContours < 0) {
-					// composite glyph
-					glyphs[i].compositeTT = true;
-					int remains = glyphs[i].length - 10;
-					while (remains > 0) {
-						readBuffer(4);
-						remains -= 4;
-						int flags = getShort(buffer, 0);
-						int glyphIndex = (getShort(buffer, 2) & 0xFFFF);
-						glyphs[glyphIndex].need = true;
-						if ((flags & 0x20) == 0) // MORE_COMPONENTS not set
-							break;
-						int argSize = getCompositeGlyphArgSize(flags);
-						readBuffer(argSize);
-						remains -= argSize;
-					}
+		for (int i = nextNeededGlyph(0); i >= 0; i = nextNeededGlyph(i + 1)) {
+			seek(glyphs[i].offset);
+			readBuffer(10);
+			short numberOfContours = getShort(buffer, 0);
+			if (numberOfContours < 0) {
+				// composite glyph
+				compositeGlyphsTT.set(i);
+				int remains = glyphs[i].length - 10;
+				while (remains > 0) {
+					readBuffer(4);
+					remains -= 4;
+					int flags = getShort(buffer, 0);
+					int glyphIndex = (getShort(buffer, 2) & 0xFFFF);
+					if (glyphIndex >= glyphs.length)
+						throw new IOException("bad composite glyph component");
+					neededGlyphs.set(glyphIndex);
+					if ((flags & 0x20) == 0) // MORE_COMPONENTS not set
+						break;
+					int argSize = getCompositeGlyphArgSize(flags);
+					readBuffer(argSize);
+					remains -= argSize;
 				}
 			}
 		}
@@ -991,20 +1188,8 @@ public class OpenTypeFont implements FontPropertyConstants {
 
 	private byte[] buildCMap() {
 
-		// build a bit array of needed characters
-		BitSet charMask = new BitSet();
-		Enumeration chars = characters.keys();
-		int maxChar = 0;
-		while (chars.hasMoreElements()) {
-			Integer code = (Integer) chars.nextElement();
-			CharacterData data = (CharacterData) characters.get(code);
-			if (data.need) {
-				int ic = code.intValue();
-				charMask.set(ic);
-				if (ic > maxChar)
-					maxChar = ic;
-			}
-		}
+		BitSet charMask = neededChars;
+		int maxChar = Math.max(charMask.length() - 1, 0);
 
 		// collect segments
 		Vector segments = new Vector();
@@ -1047,12 +1232,11 @@ public class OpenTypeFont implements FontPropertyConstants {
 			int delta = 0;
 			for (int k = 0; k < segLen; k++) {
 				int ch = k + segment.start;
-				CharacterData data = (CharacterData) characters
-						.get(new Integer(ch));
-				short glyphIndex = (data == null ? 0 : data.glyphIndex);
-				if (glyphIndex != 0) {
-					GlyphData glyph = glyphs[glyphIndex];
-					glyphIndex = (short) glyph.newIndex;
+				int glyphIndex = getGlyphIndex(ch);
+				if (glyphIndex > 0 && glyphIndex < glyphs.length) {
+					glyphIndex = newGlyphIndex[glyphIndex];
+				} else {
+					glyphIndex = 0;
 				}
 				int d = glyphIndex - ch;
 				if (k == 0) {
@@ -1062,7 +1246,7 @@ public class OpenTypeFont implements FontPropertyConstants {
 					if (delta != d)
 						segment.constDelta = false;
 				}
-				glyphIds[k] = glyphIndex;
+				glyphIds[k] = (short) glyphIndex;
 			}
 			if (!segment.constDelta) {
 				segment.glyphsBefore = glyphsBefore;
@@ -1267,33 +1451,30 @@ public class OpenTypeFont implements FontPropertyConstants {
 
 	private byte[] buildGlyphsTT() throws IOException {
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
-		for (int i = 0; i < glyphs.length; i++) {
+		for (int i = nextNeededGlyph(0); i >= 0; i = nextNeededGlyph(i + 1)) {
 			GlyphData glyph = glyphs[i];
-			if (glyph.need) {
-				if (glyph.compositeTT) {
-					byte[] arr = glyph.length > buffer.length ? new byte[glyph.length]
-							: buffer;
-					seek(glyph.offset);
-					readBuffer(arr, glyph.length);
-					int index = 10;
-					while (index <= glyph.length - 4) {
-						int flags = getShort(arr, index);
-						int glyphID = getShort(arr, index + 2) & 0xFFFF;
-						stuffShort(arr, index + 2,
-								(short) glyphs[glyphID].newIndex);
-						if ((flags & 0x20) == 0)
-							break;
-						index += 4 + getCompositeGlyphArgSize(flags); // MORE_COMPONENTS
-					}
-					out.write(arr, 0, glyph.length);
-				} else {
-					copyBytes(out, glyph.offset, glyph.length);
-				}
-				int padCount = (4 - glyph.length) & 3;
-				while (padCount > 0) {
-					padCount--;
-					out.write(0);
+			if (compositeGlyphsTT.get(i)) {
+				byte[] arr = glyph.length > buffer.length ? new byte[glyph.length]
+						: buffer;
+				seek(glyph.offset);
+				readBuffer(arr, glyph.length);
+				int index = 10;
+				while (index <= glyph.length - 4) {
+					int flags = getShort(arr, index);
+					int glyphID = getShort(arr, index + 2) & 0xFFFF;
+					stuffShort(arr, index + 2, (short) newGlyphIndex[glyphID]);
+					if ((flags & 0x20) == 0)
+						break;
+					index += 4 + getCompositeGlyphArgSize(flags); // MORE_COMPONENTS
 				}
+				out.write(arr, 0, glyph.length);
+			} else {
+				copyBytes(out, glyph.offset, glyph.length);
+			}
+			int padCount = (4 - glyph.length) & 3;
+			while (padCount > 0) {
+				padCount--;
+				out.write(0);
 			}
 		}
 		return out.toByteArray();
@@ -1306,16 +1487,13 @@ public class OpenTypeFont implements FontPropertyConstants {
 			writeShort(out, 0);
 		else
 			writeInt(out, 0);
-		for (int i = 0; i < glyphs.length; i++) {
-			GlyphData glyph = glyphs[i];
-			if (glyph.need) {
-				int paddedLength = (glyph.length + 3) & ~3;
-				offset += paddedLength;
-				if (asShorts)
-					writeShort(out, offset / 2);
-				else
-					writeInt(out, offset);
-			}
+		for (int i = nextNeededGlyph(0); i >= 0; i = nextNeededGlyph(i + 1)) {
+			int paddedLength = (glyphs[i].length + 3) & ~3;
+			offset += paddedLength;
+			if (asShorts)
+				writeShort(out, offset / 2);
+			else
+				writeInt(out, offset);
 		}
 		return out.toByteArray();
 	}
@@ -1362,13 +1540,11 @@ public class OpenTypeFont implements FontPropertyConstants {
 
 	private byte[] buildHMtx() throws IOException {
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
-		for (int i = 0; i < glyphs.length; i++) {
+		for (int i = nextNeededGlyph(0); i >= 0; i = nextNeededGlyph(i + 1)) {
 			GlyphData glyph = glyphs[i];
-			if (glyph.need) {
-				if (glyph.newIndex < newVariableWidthCount)
-					writeShort(out, glyph.advance);
-				writeShort(out, glyph.lsb);
-			}
+			if (newGlyphIndex[i] < newVariableWidthCount)
+				writeShort(out, glyph.advance);
+			writeShort(out, glyph.lsb);
 		}
 		return out.toByteArray();
 	}
@@ -1584,8 +1760,8 @@ public class OpenTypeFont implements FontPropertyConstants {
 		int prevsid = -1;
 		out.write(2); // use format 2
 		while (true) {
-			GlyphData glyph = glyphs[i++];
-			if (glyph.need) {
+			GlyphData glyph = glyphs[i];
+			if (neededGlyphs.get(i++)) {
 				int sid = glyph.namesidCFF;
 				if (sid >= CFF_STD_STRING_COUNT) {
 					sid = stringsCFF[sid - CFF_STD_STRING_COUNT].newIndex;
@@ -1612,10 +1788,8 @@ public class OpenTypeFont implements FontPropertyConstants {
 	private Object[] makeGlyphArrayCFF() {
 		Object[] subset = new Object[newGlyphCount];
 		int index = 0;
-		for (int i = 0; i < glyphs.length; i++) {
-			if (glyphs[i].need) {
-				subset[index++] = glyphs[i];
-			}
+		for (int i = nextNeededGlyph(0); i >= 0; i = nextNeededGlyph(i + 1)) {
+			subset[index++] = glyphs[i];
 		}
 		return subset;
 	}
@@ -1900,6 +2074,10 @@ public class OpenTypeFont implements FontPropertyConstants {
 	}
 
 	public boolean canEmbedForReading() throws IOException {
+		return canEmbedForReading(fsType);
+	}
+
+	static boolean canEmbedForReading(int fsType) {
 		if ((fsType & 0xF) == 2)
 			return false; // explicitly disallowed embedding and subsetting
 		if ((fsType & 0x0200) != 0)
@@ -1921,11 +2099,24 @@ public class OpenTypeFont implements FontPropertyConstants {
 	public byte[] getSubsettedFont() throws IOException {
 		if (!canSubset())
 			throw new IOException("subsetting not allowed for this font");
+		SubsetCache cache = SubsetCache.getInstance();
+		String key = null;
+		if (sourceKey != null) {
+			key = SubsetCache.makeKey(sourceKey, neededChars, neededGlyphs);
+			if (key != null) {
+				byte[] result = cache.get(key);
+				if (result != null)
+					return result;
+			}
+		}
 		if (trueTypeGlyphs)
 			resolveCompositeGlyphsTT();
 		reindexGlyphs();
 		sweepTables();
-		return writeTables();
+		byte[] result = writeTables();
+		if (key != null)
+			cache.put(key, result);
+		return result;
 	}
 
 	public String getFamilyName() {
@@ -42,9 +42,21 @@ public abstract class SimpleFontLocator extends FontLocator {
 	protected SimpleFontLocator() {
 	}
 	
+	/**
+	 * Forget collected fonts. Fonts are collected when they are first looked
+	 * up, not when the locator is created.
+	 */
 	protected void init() {
-		fontMap = new Hashtable();
-		collectFonts(fontMap);
+		fontMap = null;
+	}
+
+	private synchronized Hashtable getFontMap() {
+		if (fontMap == null) {
+			Hashtable map = new Hashtable();
+			collectFonts(map);
+			fontMap = map;
+		}
+		return fontMap;
 	}
 
 	abstract protected Iterator getStreamNames();
@@ -66,7 +78,6 @@ public abstract class SimpleFontLocator extends FontLocator {
 				FontProperties key = new FontProperties(font.getFamilyName(),
 						font.getWeight(), font.getStyle());
 				map.put(key, name);
-				System.out.println(name + ": " + key);
 			} catch (Exception e) {
 				// ignore
 				// System.out.println(name + ": " + e);
@@ -92,6 +103,7 @@ public abstract class SimpleFontLocator extends FontLocator {
 	}
 	
 	public boolean hasFont(FontProperties key) {
+		Hashtable fontMap = getFontMap();
 		key = substitute(key);
 		String fileName = (String) fontMap.get(key);
 		if (fileName == null) {
@@ -112,6 +124,7 @@ public abstract class SimpleFontLocator extends FontLocator {
 	}
 
 	public FontInputStream locateFont(FontProperties key) throws IOException {
+		Hashtable fontMap = getFontMap();
 		key = substitute(key);
 		String fileName = (String) fontMap.get(key);
 		if (fileName == null) {
@@ -131,7 +144,7 @@ public abstract class SimpleFontLocator extends FontLocator {
 		File file = new File(fileName);
 		if (!file.canRead())
 			return null;
-		return new FileFontInputStream(file);
+		return MappedFontInputStream.open(file);
 	}
 
 }
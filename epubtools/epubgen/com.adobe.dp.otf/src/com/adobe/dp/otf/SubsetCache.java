@@ -0,0 +1,290 @@
+/*******************************************************************************
+* Copyright (c) 2009, Adobe Systems Incorporated
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without 
+* modification, are permitted provided that the following conditions are met:
+*
+* ·        Redistributions of source code must retain the above copyright 
+*          notice, this list of conditions and the following disclaimer. 
+*
+* ·        Redistributions in binary form must reproduce the above copyright 
+*		   notice, this list of conditions and the following disclaimer in the
+*		   documentation and/or other materials provided with the distribution. 
+*
+* ·        Neither the name of Adobe Systems Incorporated nor the names of its 
+*		   contributors may be used to endorse or promote products derived from
+*		   this software without specific prior written permission. 
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+* AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+* IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+* DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR 
+* ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+* (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+* OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+* THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+* (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+* SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*******************************************************************************/
+
+package com.adobe.dp.otf;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Vector;
+
+/**
+ * Cache of generated font subsets, keyed by the font source (see
+ * {@link FontCache}) and the exact set of characters and glyphs that were
+ * requested. Subsets are kept in memory up to a size limit and, optionally,
+ * in a directory on disk, so that they survive restarts and can be shared by
+ * several processes. Both tiers drop the least recently used subsets first.
+ */
+public class SubsetCache {
+
+	// bump when the subsetting code starts producing different output
+	private static final int SUBSET_FORMAT = 1;
+
+	// temporary files of writers that died are removed after this time
+	private static final long STALE_TMP_AGE = 60 * 60 * 1000;
+
+	private static SubsetCache instance = new SubsetCache(16 * 1024 * 1024);
+
+	private long maxMemorySize;
+
+	private long memorySize;
+
+	private LinkedHashMap subsets = new LinkedHashMap(16, 0.75f, true);
+
+	private File diskDir;
+
+	private long maxDiskSize;
+
+	private long diskSize;
+
+	public SubsetCache(long maxMemorySize) {
+		this.maxMemorySize = maxMemorySize;
+	}
+
+	public static SubsetCache getInstance() {
+		return instance;
+	}
+
+	public synchronized void setMaxMemorySize(long maxMemorySize) {
+		this.maxMemorySize = maxMemorySize;
+		evictMemory();
+	}
+
+	/**
+	 * Also store subsets as files in the given directory, using at most
+	 * maxDiskSize bytes. Pass null to turn the disk tier off.
+	 */
+	public synchronized void setDiskCache(File dir, long maxDiskSize) {
+		this.diskDir = dir;
+		this.maxDiskSize = maxDiskSize;
+		this.diskSize = 0;
+		if (dir != null) {
+			dir.mkdirs();
+			evictDisk();
+		}
+	}
+
+	/**
+	 * Compute the cache key for a subset of the given font.
+	 */
+	static String makeKey(String fontKey, BitSet chars, BitSet glyphs) {
+		MessageDigest sha;
+		try {
+			sha = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		}
+		byte[] buf = new byte[4];
+		stuffInt(sha, buf, SUBSET_FORMAT);
+		for (int i = 0; i < fontKey.length(); i++)
+			stuffInt(sha, buf, fontKey.charAt(i));
+		stuffInt(sha, buf, -1);
+		for (int i = chars.nextSetBit(0); i >= 0; i = chars.nextSetBit(i + 1))
+			stuffInt(sha, buf, i);
+		stuffInt(sha, buf, -1);
+		for (int i = glyphs.nextSetBit(0); i >= 0; i = glyphs.nextSetBit(i + 1))
+			stuffInt(sha, buf, i);
+		byte[] hash = sha.digest();
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < hash.length; i++) {
+			sb.append(Character.forDigit((hash[i] >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(hash[i] & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	private static void stuffInt(MessageDigest sha, byte[] buf, int n) {
+		buf[0] = (byte) (n >> 24);
+		buf[1] = (byte) (n >> 16);
+		buf[2] = (byte) (n >> 8);
+		buf[3] = (byte) n;
+		sha.update(buf);
+	}
+
+	/**
+	 * Look up a subset, returns null if it is not cached.
+	 */
+	public byte[] get(String key) {
+		File file;
+		synchronized (this) {
+			byte[] subset = (byte[]) subsets.get(key);
+			if (subset != null)
+				return (byte[]) subset.clone();
+			if (diskDir == null)
+				return null;
+			file = new File(diskDir, key);
+		}
+		byte[] subset = readFile(file);
+		if (subset != null) {
+			file.setLastModified(System.currentTimeMillis());
+			synchronized (this) {
+				putMemory(key, (byte[]) subset.clone());
+			}
+		}
+		return subset;
+	}
+
+	public void put(String key, byte[] subset) {
+		File dir;
+		synchronized (this) {
+			putMemory(key, (byte[]) subset.clone());
+			dir = diskDir;
+		}
+		if (dir != null && writeFile(dir, key, subset)) {
+			synchronized (this) {
+				if (dir == diskDir) {
+					diskSize += subset.length;
+					if (diskSize > maxDiskSize)
+						evictDisk();
+				}
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		subsets.clear();
+		memorySize = 0;
+	}
+
+	private void putMemory(String key, byte[] subset) {
+		if (subset.length > maxMemorySize)
+			return;
+		byte[] old = (byte[]) subsets.put(key, subset);
+		if (old != null)
+			memorySize -= old.length;
+		memorySize += subset.length;
+		evictMemory();
+	}
+
+	private void evictMemory() {
+		Iterator it = subsets.values().iterator();
+		while (memorySize > maxMemorySize && it.hasNext()) {
+			byte[] subset = (byte[]) it.next();
+			it.remove();
+			memorySize -= subset.length;
+		}
+	}
+
+	/**
+	 * Recount the disk tier and, if it is over the limit, delete the oldest
+	 * subsets until it is down to 90% of the limit, so that the directory is
+	 * not scanned again on every put. Files still being written by other
+	 * writers are left alone.
+	 */
+	private void evictDisk() {
+		File[] all = diskDir.listFiles();
+		if (all == null)
+			return;
+		long now = System.currentTimeMillis();
+		Vector list = new Vector();
+		long total = 0;
+		for (int i = 0; i < all.length; i++) {
+			if (all[i].getName().endsWith(".tmp")) {
+				if (now - all[i].lastModified() > STALE_TMP_AGE)
+					all[i].delete();
+				continue;
+			}
+			list.add(all[i]);
+			total += all[i].length();
+		}
+		if (total > maxDiskSize) {
+			long target = maxDiskSize - maxDiskSize / 10;
+			File[] files = (File[]) list.toArray(new File[list.size()]);
+			Arrays.sort(files, new Comparator() {
+				public int compare(Object o1, Object o2) {
+					long t1 = ((File) o1).lastModified();
+					long t2 = ((File) o2).lastModified();
+					return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+				}
+			});
+			for (int i = 0; i < files.length && total > target; i++) {
+				long len = files[i].length();
+				if (files[i].delete())
+					total -= len;
+			}
+		}
+		diskSize = total;
+	}
+
+	private static byte[] readFile(File file) {
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				byte[] subset = new byte[(int) file.length()];
+				int offset = 0;
+				while (offset < subset.length) {
+					int len = in.read(subset, offset, subset.length - offset);
+					if (len <= 0)
+						return null;
+					offset += len;
+				}
+				return subset;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// not cached (or being evicted)
+			return null;
+		}
+	}
+
+	private static boolean writeFile(File dir, String key, byte[] subset) {
+		File tmp = null;
+		try {
+			tmp = File.createTempFile("subset", ".tmp", dir);
+			FileOutputStream out = new FileOutputStream(tmp);
+			try {
+				out.write(subset);
+			} finally {
+				out.close();
+			}
+			File dest = new File(dir, key);
+			if (tmp.renameTo(dest))
+				return true;
+			// lost the race to another writer of the same subset
+			tmp.delete();
+			return false;
+		} catch (IOException e) {
+			e.printStackTrace();
+			if (tmp != null)
+				tmp.delete();
+			return false;
+		}
+	}
+}